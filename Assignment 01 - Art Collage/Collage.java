@@ -1,6 +1,30 @@
 package art;
 
 import java.awt.Color;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 /*
  * This class contains methods to create and perform operations on a collage of images.
@@ -13,11 +37,19 @@ public class Collage {
     // The orginal picture
     private Picture originalPicture;
 
+    // Optional downsampling pyramid of originalPicture, shared between collages
+    private Mipmap pyramid;
+
     // The collage picture is made up of tiles.
     // Each tile consists of tileDimension X tileDimension pixels
     // The collage picture has collageDimension X collageDimension tiles
     private Picture collagePicture;
 
+    // Where the collage pixels actually live: collagePicture, a VirtualRaster
+    // computing them on demand or a MappedRaster off the heap (collagePicture
+    // is then null until requested)
+    private Raster collageRaster;
+
     // The collagePicture is made up of collageDimension X collageDimension tiles
     // Imagine a collagePicture as a 2D array of tiles
     private int collageDimension;
@@ -28,6 +60,21 @@ public class Collage {
     // of the pixel on the screen.
     private int tileDimension;
 
+    // Filter used when the original (or a replacement image) is scaled into a tile
+    private Resampling resampling = Resampling.NEAREST;
+
+    // Optional cache of decoded and scaled replacement images, see replaceTile
+    private TileCache tileCache;
+
+    // Tiles changed since the last takeDirtyRegions(),
+    // by index collageRow * collageDimension + collageCol. allDirty stands for
+    // every tile, e.g. after makeCollage()
+    private final BitSet dirtyTiles = new BitSet();
+    private boolean allDirty = true;
+
+    // Pre-edit pixels of recent tile edits, see undo()
+    private final EditHistory history = new EditHistory();
+
     /*
      * One-argument Constructor
      * 1. set default values of collageDimension to 4 and tileDimension to 150
@@ -39,11 +86,14 @@ public class Collage {
      * @param filename the image filename
      */
     public Collage(String filename) {
+        long start = CollageMetrics.start();
         collageDimension = 4;
         tileDimension = 150;
         originalPicture = new Picture(filename);
         collagePicture = new Picture(600, 600);
-        scale(originalPicture, collagePicture);
+        collageRaster = new PictureRaster(collagePicture);
+        scale(originalPicture, collageRaster);
+        CollageMetrics.record(CollageMetrics.Operation.CONSTRUCT, start, 600 * 600);
     }
 
     /*
@@ -57,11 +107,162 @@ public class Collage {
      * @param filename the image filename
      */
     public Collage(String filename, int td, int cd) {
+        long start = CollageMetrics.start();
+        collageDimension = cd;
+        tileDimension = td;
+        originalPicture = new Picture(filename);
+        collagePicture = new Picture(tileDimension * collageDimension, tileDimension * collageDimension);
+        collageRaster = new PictureRaster(collagePicture);
+        scale(originalPicture, collageRaster);
+        CollageMetrics.record(CollageMetrics.Operation.CONSTRUCT, start, collagePixels());
+    }
+
+    /*
+     * Four-arguments Constructor
+     * Same as Collage(filename, td, cd) when @virtual is false. When @virtual is
+     * true the collage is not stored pixel by pixel: only the scaled tile and
+     * the tiles that were edited are kept, and every other pixel is computed
+     * from them when it is read. The full collagePicture is built the first
+     * time getCollagePicture() or showCollagePicture() is called, after which
+     * the collage behaves like a regular one.
+     *
+     * @param filename the image filename
+     * @param td tile dimension
+     * @param cd collage dimension
+     * @param virtual true to compute pixels on demand
+     */
+    public Collage(String filename, int td, int cd, boolean virtual) {
+        long start = CollageMetrics.start();
+        collageDimension = cd;
+        tileDimension = td;
+        originalPicture = new Picture(filename);
+        if (virtual) {
+            collageRaster = new VirtualRaster(originalPicture, tileDimension, collageDimension);
+        } else {
+            collagePicture = new Picture(tileDimension * collageDimension, tileDimension * collageDimension);
+            collageRaster = new PictureRaster(collagePicture);
+            scale(originalPicture, collageRaster);
+        }
+        CollageMetrics.record(CollageMetrics.Operation.CONSTRUCT, start, collagePixels());
+    }
+
+    /*
+     * Five-arguments Constructor
+     * Same as Collage(filename, td, cd), except that the collage pixels are
+     * stored off the Java heap in the memory-mapped file @rasterFile (created
+     * or overwritten). makeCollage, colorizeTile, grayscaleTile and replaceTile
+     * work directly on the mapped file, so the collage may be larger than the
+     * heap. getCollagePicture() and showCollagePicture() copy it into a
+     * regular Picture, after which the file is no longer used.
+     *
+     * @param filename the image filename
+     * @param td tile dimension
+     * @param cd collage dimension
+     * @param rasterFile file backing the collage pixels
+     * @throws IOException if @rasterFile cannot be created or mapped
+     */
+    public Collage(String filename, int td, int cd, Path rasterFile) throws IOException {
+        long start = CollageMetrics.start();
         collageDimension = cd;
         tileDimension = td;
         originalPicture = new Picture(filename);
+        collageRaster = new MappedRaster(rasterFile, tileDimension * collageDimension, tileDimension * collageDimension);
+        scale(originalPicture, collageRaster);
+        CollageMetrics.record(CollageMetrics.Operation.CONSTRUCT, start, collagePixels());
+    }
+
+    /*
+     * Pyramid Constructor
+     * Same as Collage(filename, td, cd) but starts from a prebuilt Mipmap of
+     * the original, which may be reused by any number of collages. The
+     * constructor and makeCollage() scale from the pyramid level closest to
+     * (and no smaller than) the size they need instead of from the full
+     * resolution picture.
+     *
+     * @param pyramid the original picture and its pyramid
+     * @param td tile dimension
+     * @param cd collage dimension
+     */
+    public Collage(Mipmap pyramid, int td, int cd) {
+        long start = CollageMetrics.start();
+        collageDimension = cd;
+        tileDimension = td;
+        this.pyramid = pyramid;
+        originalPicture = pyramid.getSource();
         collagePicture = new Picture(tileDimension * collageDimension, tileDimension * collageDimension);
-        scale(originalPicture, collagePicture);
+        pyramid.scale(collagePicture, Resampling.NEAREST);
+        collageRaster = new PictureRaster(collagePicture);
+        CollageMetrics.record(CollageMetrics.Operation.CONSTRUCT, start, collagePixels());
+    }
+
+    /*
+     * Copy Constructor, see copy()
+     *
+     * @param rasterFile file receiving the pixels when @other is mapped
+     */
+    private Collage(Collage other, Path rasterFile) throws IOException {
+        collageDimension = other.collageDimension;
+        tileDimension = other.tileDimension;
+        originalPicture = other.originalPicture;
+        pyramid = other.pyramid;
+        resampling = other.resampling;
+        tileCache = other.tileCache;
+        if (other.collageRaster instanceof VirtualRaster) {
+            collageRaster = ((VirtualRaster) other.collageRaster).copy();
+        } else if (other.collageRaster instanceof MappedRaster) {
+            collageRaster = ((MappedRaster) other.collageRaster).copy(rasterFile);
+        } else {
+            int size = other.collageRaster.width();
+            collagePicture = new Picture(size, size);
+            int[] row = new int[size];
+            for (int j = 0; j < size; j++) {
+                other.collageRaster.readRow(0, j, row, 0, size);
+                writeRow(collagePicture, 0, j, row, 0, size);
+            }
+            collageRaster = new PictureRaster(collagePicture);
+        }
+    }
+
+    /*
+     * Returns an independent copy of this collage; edits to one do not show
+     * in the other. The original picture is shared. A virtual collage copies
+     * only its tile map: identical tiles share one immutable block and a tile
+     * gets its own copy when it is next edited, so the cost of copying grows
+     * with the number of distinct edited tiles. A memory-mapped collage is
+     * copied into a new mapped temporary file, deleted when the JVM exits, so
+     * the copy stays off the heap too; use copy(Path) to choose the file.
+     * Other collages are copied pixel by pixel into a new Picture.
+     *
+     * @return the copy
+     * @throws UncheckedIOException if the temporary file cannot be created
+     */
+    public Collage copy() {
+        try {
+            Path rasterFile = null;
+            if (isMapped()) {
+                rasterFile = Files.createTempFile("collage", ".raster");
+                rasterFile.toFile().deleteOnExit();
+            }
+            return new Collage(this, rasterFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not create the raster file of the copy", e);
+        }
+    }
+
+    /*
+     * Returns an independent copy of this memory-mapped collage, stored in
+     * the memory-mapped file @rasterFile (created or overwritten).
+     *
+     * @param rasterFile file backing the pixels of the copy
+     * @return the copy
+     * @throws IOException if @rasterFile cannot be created or mapped
+     * @throws IllegalStateException if this collage is not memory-mapped
+     */
+    public Collage copy(Path rasterFile) throws IOException {
+        if (!isMapped()) {
+            throw new IllegalStateException("only a memory-mapped collage can be copied into a file");
+        }
+        return new Collage(this, rasterFile);
     }
 
 
@@ -69,20 +270,241 @@ public class Collage {
      * Scales the Picture @source into Picture @target size.
      * In another words it changes the size of @source to make it fit into
      * @target. Do not update @source. 
+     *
+     * Uses nearest-neighbour sampling. The source column/row of every target
+     * column/row is computed once up front, pixels are moved as packed ARGB ints
+     * (no Color per pixel), and consecutive target rows that sample the same
+     * source row reuse the row already built.
      *  
      * @param source is the image to be scaled.
      * @param target is the 
      */
     public static void scale(Picture source, Picture target) {
+        long start = CollageMetrics.start();
+        scale(source, new PictureRaster(target));
+        CollageMetrics.record(CollageMetrics.Operation.SCALE, start, (long) target.width() * target.height());
+    }
+
+    /*
+     * Nearest-neighbour scale(Picture, Picture) into any Raster
+     */
+    static void scale(Picture source, Raster target) {
         int width = target.width();
         int height = target.height();
-        for (int targetCol = 0; targetCol < target.width(); targetCol++) {
-            for (int targetRow = 0; targetRow < target.height(); targetRow++) {
-                int sourceCol = targetCol * source.width() / width;
-                int sourceRow = targetRow * source.height() / height;
-                Color color = source.get(sourceCol, sourceRow);
-                target.set(targetCol, targetRow, color);
+        int[] sourceCols = indexTable(source.width(), width);
+        int[] sourceRows = indexTable(source.height(), height);
+        int[] row = new int[width];
+        for (int targetRow = 0; targetRow < height; targetRow++) {
+            int sourceRow = sourceRows[targetRow];
+            if (targetRow == 0 || sourceRow != sourceRows[targetRow - 1]) {
+                for (int targetCol = 0; targetCol < width; targetCol++) {
+                    row[targetCol] = source.getRGB(sourceCols[targetCol], sourceRow);
+                }
             }
+            target.writeRow(0, targetRow, row, 0, width);
+        }
+    }
+
+    /*
+     * Scales the Picture @source into Picture @target size using the @mode
+     * filter. scale(source, target, Resampling.NEAREST) is the same as
+     * scale(source, target). Do not update @source.
+     *
+     * @param source is the image to be scaled.
+     * @param target is the image receiving the scaled pixels
+     * @param mode the resampling filter
+     */
+    public static void scale(Picture source, Picture target, Resampling mode) {
+        long start = CollageMetrics.start();
+        if (mode == Resampling.NEAREST) {
+            scale(source, new PictureRaster(target));
+        } else {
+            int width = target.width();
+            int[] raster = scaledRaster(source, width, target.height(), mode);
+            for (int row = 0; row < target.height(); row++) {
+                writeRow(target, 0, row, raster, row * width, width);
+            }
+        }
+        CollageMetrics.record(CollageMetrics.Operation.SCALE, start, (long) target.width() * target.height());
+    }
+
+    /*
+     * Scales the @sourceRegion of Picture @source into the @targetRegion of
+     * Picture @target with nearest-neighbour sampling. Only the source pixels
+     * that are sampled are read and only @targetRegion is written, so a crop
+     * or zoom costs the size of the region rather than the whole image.
+     * scale(source, sourceBounds, target, targetBounds) is the same as
+     * scale(source, target). Do not update @source.
+     *
+     * @param source is the image to be scaled
+     * @param sourceRegion the part of @source to read
+     * @param target is the image receiving the scaled pixels
+     * @param targetRegion the part of @target to write
+     */
+    public static void scale(Picture source, Rectangle sourceRegion, Picture target, Rectangle targetRegion) {
+        long start = CollageMetrics.start();
+        checkRegion(sourceRegion, source.width(), source.height(), "source");
+        checkRegion(targetRegion, target.width(), target.height(), "target");
+        int width = targetRegion.width;
+        int[] raster = scaledRaster(source, sourceRegion, width, targetRegion.height, Resampling.NEAREST);
+        for (int row = 0; row < targetRegion.height; row++) {
+            writeRow(target, targetRegion.x, targetRegion.y + row, raster, row * width, width);
+        }
+        CollageMetrics.record(CollageMetrics.Operation.SCALE, start, (long) width * targetRegion.height);
+    }
+
+    /*
+     * Scales a packed ARGB raster into another one, same nearest-neighbour
+     * result as scale(Picture, Picture). Both rasters are row-major, so pixel
+     * (col, row) lives at index row * width + col.
+     *
+     * @param source the source pixels
+     * @param sourceWidth width of the source raster
+     * @param sourceHeight height of the source raster
+     * @param target the array receiving the scaled pixels
+     * @param targetWidth width of the target raster
+     * @param targetHeight height of the target raster
+     */
+    public static void scale(int[] source, int sourceWidth, int sourceHeight,
+                             int[] target, int targetWidth, int targetHeight) {
+        int[] sourceCols = indexTable(sourceWidth, targetWidth);
+        int[] sourceRows = indexTable(sourceHeight, targetHeight);
+        for (int targetRow = 0; targetRow < targetHeight; targetRow++) {
+            int out = targetRow * targetWidth;
+            int sourceRow = sourceRows[targetRow];
+            if (targetRow > 0 && sourceRow == sourceRows[targetRow - 1]) {
+                System.arraycopy(target, out - targetWidth, target, out, targetWidth);
+                continue;
+            }
+            int in = sourceRow * sourceWidth;
+            for (int targetCol = 0; targetCol < targetWidth; targetCol++) {
+                target[out + targetCol] = source[in + sourceCols[targetCol]];
+            }
+        }
+    }
+
+    /*
+     * Returns @source scaled to width x height as a packed ARGB raster, reading
+     * only the source pixels that are sampled.
+     *
+     * @param source the image to be scaled
+     * @param width target width
+     * @param height target height
+     * @return width * height packed pixels
+     */
+    static int[] scaledRaster(Picture source, int width, int height) {
+        return scaledRaster(source, new Rectangle(0, 0, source.width(), source.height()),
+                width, height, Resampling.NEAREST);
+    }
+
+    /*
+     * Returns @source scaled to width x height with the @mode filter as a
+     * packed ARGB raster.
+     *
+     * @param source the image to be scaled
+     * @param width target width
+     * @param height target height
+     * @param mode the resampling filter
+     * @return width * height packed pixels
+     */
+    static int[] scaledRaster(Picture source, int width, int height, Resampling mode) {
+        return scaledRaster(source, new Rectangle(0, 0, source.width(), source.height()), width, height, mode);
+    }
+
+    /*
+     * Returns the @region of @source scaled to width x height with the @mode
+     * filter as a packed ARGB raster. Only pixels inside @region are read, and
+     * with NEAREST only the ones that are sampled.
+     *
+     * @param source the image to be scaled
+     * @param region the part of @source to scale, inside its bounds
+     * @param width target width
+     * @param height target height
+     * @param mode the resampling filter
+     * @return width * height packed pixels
+     */
+    static int[] scaledRaster(Picture source, Rectangle region, int width, int height, Resampling mode) {
+        if (mode != Resampling.NEAREST) {
+            return Resampler.resample((row, pixels) -> readRow(source, region.x, region.y + row, pixels, 0, pixels.length),
+                    region.width, region.height, width, height, mode);
+        }
+        int[] sourceCols = indexTable(region.width, width);
+        int[] sourceRows = indexTable(region.height, height);
+        int[] raster = new int[width * height];
+        for (int row = 0; row < height; row++) {
+            int out = row * width;
+            if (row > 0 && sourceRows[row] == sourceRows[row - 1]) {
+                System.arraycopy(raster, out - width, raster, out, width);
+                continue;
+            }
+            int sourceRow = region.y + sourceRows[row];
+            for (int col = 0; col < width; col++) {
+                raster[out + col] = source.getRGB(region.x + sourceCols[col], sourceRow);
+            }
+        }
+        return raster;
+    }
+
+    /*
+     * Throws IllegalArgumentException unless @region is a non-empty rectangle
+     * inside a width x height image
+     */
+    static void checkRegion(Rectangle region, int width, int height, String what) {
+        if (region.isEmpty() || region.x < 0 || region.y < 0
+                || region.x + region.width > width || region.y + region.height > height) {
+            throw new IllegalArgumentException(what + " region " + region + " is outside the "
+                    + width + "x" + height + " image");
+        }
+    }
+
+    /*
+     * Returns the nearest-neighbour lookup table mapping each of the targetLength
+     * positions to a source position, i.e. table[i] = i * sourceLength / targetLength.
+     *
+     * @param sourceLength number of source pixels along the axis
+     * @param targetLength number of target pixels along the axis
+     * @return the index table
+     */
+    static int[] indexTable(int sourceLength, int targetLength) {
+        int[] table = new int[targetLength];
+        for (int i = 0; i < targetLength; i++) {
+            table[i] = (int) ((long) i * sourceLength / targetLength);
+        }
+        return table;
+    }
+
+    /*
+     * Copies the whole picture into a packed ARGB raster (row-major).
+     *
+     * @param picture the picture to read
+     * @return width * height packed pixels
+     */
+    static int[] toRaster(Picture picture) {
+        int width = picture.width();
+        int[] raster = new int[width * picture.height()];
+        for (int row = 0; row < picture.height(); row++) {
+            readRow(picture, 0, row, raster, row * width, width);
+        }
+        return raster;
+    }
+
+    /*
+     * Reads length pixels of picture row @row, starting at column @col,
+     * into pixels[offset..offset+length).
+     */
+    static void readRow(Picture picture, int col, int row, int[] pixels, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            pixels[offset + i] = picture.getRGB(col + i, row);
+        }
+    }
+
+    /*
+     * Writes pixels[offset..offset+length) into picture row @row, starting at
+     * column @col.
+     */
+    static void writeRow(Picture picture, int col, int row, int[] pixels, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            picture.setRGB(col + i, row, pixels[offset + i]);
         }
     }
 
@@ -104,6 +526,45 @@ public class Collage {
         return tileDimension;
     }
 
+    /*
+     * Returns the filter used to scale images into tiles
+     *
+     * @return resampling
+     */
+    public Resampling getResampling() {
+        return resampling;
+    }
+
+    /*
+     * Sets the filter used by makeCollage() and replaceTile() to scale images
+     * into tiles. Defaults to Resampling.NEAREST.
+     *
+     * @param mode the resampling filter
+     */
+    public void setResampling(Resampling mode) {
+        resampling = mode;
+    }
+
+    /*
+     * Returns the cache used by replaceTile(), null when caching is off
+     *
+     * @return tileCache
+     */
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    /*
+     * Makes replaceTile() take its scaled images from @cache instead of
+     * decoding and scaling the file on every call. A cache may be shared by
+     * several Collages. Pass null to turn caching off.
+     *
+     * @param cache the tile cache
+     */
+    public void setTileCache(TileCache cache) {
+        tileCache = cache;
+    }
+
     /*
      * Returns original instance variable
      *
@@ -115,15 +576,46 @@ public class Collage {
     }
 
     /*
-     * Returns collage instance variable
+     * Returns collage instance variable. A virtual or memory-mapped collage is
+     * copied into a full Picture at this point and keeps working on that
+     * Picture from then on.
      *
      * @return collage
      */
 
     public Picture getCollagePicture() {
+        if (collagePicture == null) {
+            int size = collageRaster.width();
+            Picture picture = new Picture(size, size);
+            int[] row = new int[size];
+            for (int j = 0; j < size; j++) {
+                collageRaster.readRow(0, j, row, 0, size);
+                writeRow(picture, 0, j, row, 0, size);
+            }
+            collagePicture = picture;
+            collageRaster = new PictureRaster(picture);
+        }
         return collagePicture;
     }
 
+    /*
+     * Returns whether the collage pixels are still computed on demand
+     *
+     * @return true for a virtual collage that has not been built yet
+     */
+    public boolean isVirtual() {
+        return collageRaster instanceof VirtualRaster;
+    }
+
+    /*
+     * Returns whether the collage pixels are still stored in a memory-mapped file
+     *
+     * @return true for a mapped collage that has not been copied into a Picture
+     */
+    public boolean isMapped() {
+        return collageRaster instanceof MappedRaster;
+    }
+
     /*
      * Display the original image
      * Assumes that original has been initialized
@@ -137,7 +629,67 @@ public class Collage {
      * Assumes that collage has been initialized
      */
     public void showCollagePicture() {
-        collagePicture.show();
+        getCollagePicture().show();
+    }
+
+    /*
+     * Returns the regions of the collage changed since the last call to
+     * takeDirtyRegions(), in pixels, and marks the collage clean;
+     * showCollagePicture() does not consume them. Edited tiles that are next
+     * to each other in a tile row are merged into one rectangle. After
+     * makeCollage() the whole collage is one region.
+     *
+     * @return the changed regions, empty if nothing changed
+     */
+    public List<Rectangle> takeDirtyRegions() {
+        List<Rectangle> regions = new ArrayList<>();
+        synchronized (dirtyTiles) {
+            int size = tileDimension * collageDimension;
+            if (allDirty) {
+                regions.add(new Rectangle(0, 0, size, size));
+            } else {
+                for (int tile = dirtyTiles.nextSetBit(0); tile >= 0; ) {
+                    int row = tile / collageDimension;
+                    int end = Math.min(dirtyTiles.nextClearBit(tile), (row + 1) * collageDimension);
+                    regions.add(new Rectangle((tile % collageDimension) * tileDimension, row * tileDimension,
+                            (end - tile) * tileDimension, tileDimension));
+                    tile = dirtyTiles.nextSetBit(end);
+                }
+            }
+            allDirty = false;
+            dirtyTiles.clear();
+        }
+        return regions;
+    }
+
+    /*
+     * Returns the pixels of @region of the collage, row-major. Works on
+     * virtual and memory-mapped collages without building their Picture, so
+     * a display or export layer can fetch just the regions returned by
+     * takeDirtyRegions().
+     *
+     * @param region the area to read, in pixels
+     * @return region.width * region.height packed ARGB pixels
+     */
+    public int[] readRegion(Rectangle region) {
+        int[] pixels = new int[region.width * region.height];
+        collageRaster.readBlock(region.x, region.y, region.width, region.height, pixels);
+        return pixels;
+    }
+
+    // Records that tile (collageCol, collageRow) changed
+    private void markDirty(int collageCol, int collageRow) {
+        synchronized (dirtyTiles) {
+            dirtyTiles.set(collageRow * collageDimension + collageCol);
+        }
+    }
+
+    // Records that the whole collage changed
+    private void markAllDirty() {
+        synchronized (dirtyTiles) {
+            allDirty = true;
+            dirtyTiles.clear();
+        }
     }
 
     /*
@@ -161,27 +713,143 @@ public class Collage {
 
     public void makeCollage() {
 
-        Picture newCollage = new Picture(tileDimension, tileDimension);
-        scale(originalPicture, newCollage);
-
-        int width = 0;
-        int height = 0;
-        int c = 0;
-
-        while (height < collageDimension * tileDimension) {
-            while (width < collageDimension * tileDimension) {
-                for (int i = 0; i < tileDimension; i++) {
-                    for (int j = 0; j < tileDimension; j++) {
-                        collagePicture.set(width, height, newCollage.get(i, j));
-                        height++;
-                    }
-                    height = c * tileDimension;
-                    width++;
+        long start = CollageMetrics.start();
+        markAllDirty();
+        history.clear();
+        int[] tile = scaledOriginal(tileDimension, tileDimension);
+        if (collageRaster instanceof VirtualRaster) {
+            ((VirtualRaster) collageRaster).setBaseTile(tile);
+        } else {
+            int[] row = new int[tileDimension * collageDimension];
+
+            for (int j = 0; j < tileDimension; j++) {
+                renderTileRow(tile, j, row);
+            }
+        }
+        CollageMetrics.record(CollageMetrics.Operation.MAKE_COLLAGE, start, collagePixels());
+    }
+
+    /*
+     * Same as makeCollage() but renders the collage on @executor, one task per
+     * pixel row of the tile. Every task replicates its own tile row into all
+     * collage rows that show it, so tasks are independent and the result is
+     * identical to makeCollage(). Blocks until every task has finished.
+     *
+     * @param executor runs the row tasks, e.g. a ForkJoinPool
+     */
+    public void makeCollage(ExecutorService executor) {
+
+        long start = CollageMetrics.start();
+        markAllDirty();
+        history.clear();
+        int[] tile = scaledOriginal(tileDimension, tileDimension);
+        if (collageRaster instanceof VirtualRaster) {
+            ((VirtualRaster) collageRaster).setBaseTile(tile);
+        } else {
+            List<Callable<Void>> rows = new ArrayList<>(tileDimension);
+            for (int j = 0; j < tileDimension; j++) {
+                final int tileRow = j;
+                rows.add(() -> {
+                    renderTileRow(tile, tileRow, new int[tileDimension * collageDimension]);
+                    return null;
+                });
+            }
+            runAll(executor, rows, "render the collage");
+        }
+        CollageMetrics.record(CollageMetrics.Operation.MAKE_COLLAGE, start, collagePixels());
+    }
+
+    /*
+     * Returns originalPicture scaled to width x height with the collage's
+     * resampling filter, from the pyramid when there is one
+     */
+    private int[] scaledOriginal(int width, int height) {
+        if (pyramid != null) {
+            return pyramid.scale(width, height, resampling);
+        }
+        return scaledRaster(originalPicture, width, height, resampling);
+    }
+
+    /*
+     * Builds one full collage row out of pixel row @tileRow of @tile and writes
+     * it to every tile band of collagePicture.
+     *
+     * @param tile tileDimension x tileDimension packed pixels
+     * @param tileRow pixel row of the tile to replicate
+     * @param row scratch buffer of tileDimension * collageDimension pixels
+     */
+    private void renderTileRow(int[] tile, int tileRow, int[] row) {
+        replicateRow(tile, tileDimension, tileRow, row, 0, row.length);
+        for (int band = 0; band < collageDimension; band++) {
+            collageRaster.writeRow(0, band * tileDimension + tileRow, row, 0, row.length);
+        }
+    }
+
+    /*
+     * Fills row[offset..offset+length) with copies of pixel row @tileRow of a
+     * tileDimension x tileDimension tile. The tile row is copied once and the
+     * filled prefix is then doubled with System.arraycopy, so replication
+     * costs log(length / tileDimension) block copies.
+     */
+    private static void replicateRow(int[] tile, int tileDimension, int tileRow, int[] row, int offset, int length) {
+        System.arraycopy(tile, tileRow * tileDimension, row, offset, tileDimension);
+        for (int filled = tileDimension; filled < length; filled *= 2) {
+            System.arraycopy(row, offset, row, offset + filled, Math.min(filled, length - filled));
+        }
+    }
+
+    /*
+     * Saves the collage to @filename as a PNG image. The image is encoded one
+     * horizontal strip of tiles at a time, so besides the collage itself only
+     * one strip (tileDimension rows) is held in memory. A virtual collage is
+     * exported without being built.
+     *
+     * @param filename the PNG file to write
+     */
+    public void exportCollage(String filename) {
+        int width = tileDimension * collageDimension;
+        int[] strip = new int[tileDimension * width];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename));
+             PngStripWriter png = new PngStripWriter(out, width, width)) {
+            for (int band = 0; band < collageDimension; band++) {
+                for (int j = 0; j < tileDimension; j++) {
+                    collageRaster.readRow(0, band * tileDimension + j, strip, j * width, width);
                 }
+                png.writeRows(strip, 0, tileDimension);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not write " + filename, e);
+        }
+    }
+
+    /*
+     * Writes the collage that new Collage(filename, td, cd) followed by
+     * makeCollage() would produce straight to the PNG file @output, without
+     * ever building the collage picture. Only the scaled tile and one strip
+     * of tiles are held in memory, however large the collage is.
+     *
+     * @param filename the image filename
+     * @param td tile dimension
+     * @param cd collage dimension
+     * @param output the PNG file to write
+     */
+    public static void exportCollage(String filename, int td, int cd, String output) {
+        int[] tile = scaledRaster(new Picture(filename), td, td);
+        int width = td * cd;
+
+        // Every strip of a fresh collage is the same, render it once
+        int[] strip = new int[td * width];
+        for (int j = 0; j < td; j++) {
+            replicateRow(tile, td, j, strip, j * width, width);
+        }
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+             PngStripWriter png = new PngStripWriter(out, width, width)) {
+            for (int band = 0; band < cd; band++) {
+                png.writeRows(strip, 0, td);
             }
-            width = 0;
-            c++;
-            height = c * tileDimension;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not write " + output, e);
         }
     }
 
@@ -195,27 +863,7 @@ public class Collage {
      * @param collageRow tile row
      */
     public void colorizeTile(String component, int collageCol, int collageRow) {
-
-        int r = 0;
-        int g = 0;
-        int b = 0;
-
-        int ncol = collageCol * tileDimension;
-        int nrow = collageRow * tileDimension;
-
-        for (int i = ncol; i < (ncol + tileDimension); i++) {
-            for (int j = nrow; j < (nrow + tileDimension); j++) {
-                Color color = collagePicture.get(i, j);
-                if (component == "red")
-                    r = color.getRed();
-                else if (component == "green")
-                    g = color.getGreen();
-                else if (component == "blue")
-                    b = color.getBlue();
-
-                collagePicture.set(i, j, new Color(r, g, b));
-            }
-        }
+        editTile(CollageMetrics.Operation.COLORIZE_TILE, TileOperation.colorize(component, collageCol, collageRow));
     }
 
     /*
@@ -227,33 +875,103 @@ public class Collage {
      * @param collageRow tile row
      */
     public void replaceTile(String filename, int collageCol, int collageRow) {
+        editTile(CollageMetrics.Operation.REPLACE_TILE, TileOperation.replace(filename, collageCol, collageRow));
+    }
 
-        int ncol = collageCol * tileDimension;
-        int nrow = collageRow * tileDimension;
+    /*
+     * Replaces the tile at collageCol,collageRow with the @sourceRegion of the
+     * image from filename, e.g. to zoom into part of a picture. Only that
+     * region is scaled; the current resampling filter is used. Can be undone
+     * like replaceTile.
+     *
+     * @param filename image to replace tile
+     * @param sourceRegion the part of the image to show in the tile
+     * @param collageCol tile column
+     * @param collageRow tile row
+     */
+    public void replaceTile(String filename, Rectangle sourceRegion, int collageCol, int collageRow) {
+        long start = CollageMetrics.start();
+        checkTile(collageCol, collageRow);
+        Picture source = new Picture(filename);
+        checkRegion(sourceRegion, source.width(), source.height(), "source");
+        int[] pixels = scaledRaster(source, sourceRegion, tileDimension, tileDimension, resampling);
+        history.begin();
+        commitTile(collageCol, collageRow, pixels);
+        history.commit();
+        CollageMetrics.record(CollageMetrics.Operation.REPLACE_TILE, start, tilePixels(1));
+    }
 
-        Picture temp = new Picture(filename);
-        Picture scaled = new Picture(tileDimension, tileDimension);
+    /*
+     * Replaces many tiles at once. Every distinct file is decoded and scaled
+     * once, concurrently on a pool of at most @maxConcurrency threads, and the
+     * tiles are written after all decoding is done. Same result as calling
+     * replaceTile for each entry.
+     *
+     * @param replacements image filename for each tile, keyed by (collageCol, collageRow)
+     * @param maxConcurrency most images decoded at the same time
+     */
+    public void replaceTiles(Map<Point, String> replacements, int maxConcurrency) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrency));
+        try {
+            replaceTiles(replacements, executor, maxConcurrency);
+        } finally {
+            executor.shutdown();
+        }
+    }
 
-        for (int i = 0; i < tileDimension; i++) {
-            for (int j = 0; j < tileDimension; j++) {
+    /*
+     * Same as replaceTiles(replacements, maxConcurrency) but decodes on
+     * @executor, which may have any number of threads (on newer JDKs, e.g. a
+     * virtual thread per task executor); at most @maxConcurrency decodes run
+     * at the same time.
+     *
+     * @param replacements image filename for each tile, keyed by (collageCol, collageRow)
+     * @param executor runs the decoding tasks
+     * @param maxConcurrency most images decoded at the same time
+     */
+    public void replaceTiles(Map<Point, String> replacements, ExecutorService executor, int maxConcurrency) {
+        for (Point tile : replacements.keySet()) {
+            checkTile(tile.x, tile.y);
+        }
 
-                int col = i * temp.width() / tileDimension;
-                int row = j * temp.height() / tileDimension;
-                Color color = temp.get(col, row);
-                scaled.set(i, j, color);
-            }
+        long start = CollageMetrics.start();
+        history.begin();
+        Semaphore permits = new Semaphore(Math.max(1, maxConcurrency));
+        Map<String, int[]> scaled = new ConcurrentHashMap<>();
+        List<Callable<Void>> decodes = new ArrayList<>();
+        for (String filename : new LinkedHashSet<>(replacements.values())) {
+            decodes.add(() -> {
+                permits.acquire();
+                try {
+                    scaled.put(filename, loadTile(filename));
+                } finally {
+                    permits.release();
+                }
+                return null;
+            });
         }
+        runAll(executor, decodes, "decode the replacement images");
 
-        for (int i = 0; i < tileDimension; i++) {
-            nrow = collageRow * tileDimension;
-            for (int j = 0; j < tileDimension; j++) {
-                Color color = scaled.get(i, j);
-                collagePicture.set(ncol, nrow, color);
-                nrow++;
-            }
-            ncol++;
+        for (Map.Entry<Point, String> entry : replacements.entrySet()) {
+            Point tile = entry.getKey();
+            commitTile(tile.x, tile.y, scaled.get(entry.getValue()).clone());
         }
+        history.commit();
+        CollageMetrics.record(CollageMetrics.Operation.TILE_BATCH, start, tilePixels(replacements.size()));
+    }
 
+    /*
+     * Returns the image in @filename scaled to a tile, through tileCache when
+     * one is set. The returned raster must not be modified.
+     *
+     * @param filename the image filename
+     * @return tileDimension * tileDimension packed pixels
+     */
+    private int[] loadTile(String filename) {
+        if (tileCache != null) {
+            return tileCache.get(filename, tileDimension, resampling);
+        }
+        return scaledRaster(new Picture(filename), tileDimension, tileDimension, resampling);
     }
 
     /*
@@ -283,10 +1001,318 @@ public class Collage {
         //     }
         // }
 
-        for (int i = 0; i < tileDimension; i++) {
-            for (int j = 0; j < tileDimension; j++) {
-                collagePicture.set((collageCol * tileDimension) + i, (collageRow * tileDimension) + j, toGray(collagePicture.get((collageCol * tileDimension) + i, (collageRow * tileDimension) + j)));
+        editTile(CollageMetrics.Operation.GRAYSCALE_TILE, TileOperation.grayscale(collageCol, collageRow));
+    }
+
+    /*
+     * Sets how many bytes of pixels the undo/redo history may keep. Every
+     * colorizeTile, grayscaleTile, replaceTile or batch call is one undo step
+     * and costs 4 bytes per pixel of the tiles it changed; the oldest steps
+     * are dropped when the limit is reached. A step larger than the limit
+     * cannot be undone and clears the history; its tiles are not copied
+     * beyond the limit. 0, the default, turns the history off. makeCollage()
+     * clears the history.
+     *
+     * @param bytes the memory ceiling of the history
+     */
+    public void setUndoLimit(long bytes) {
+        history.setLimit(bytes);
+        if (bytes == 0) {
+            history.clear();
+        }
+    }
+
+    /*
+     * Reverts the most recent tile edit, restoring only the tiles it touched
+     *
+     * @return false if there was nothing to undo
+     */
+    public boolean undo() {
+        EditHistory.Edit edit = history.popUndo();
+        if (edit == null) {
+            return false;
+        }
+        history.pushRedo(swap(edit));
+        return true;
+    }
+
+    /*
+     * Applies again the most recently undone edit
+     *
+     * @return false if there was nothing to redo
+     */
+    public boolean redo() {
+        EditHistory.Edit edit = history.popRedo();
+        if (edit == null) {
+            return false;
+        }
+        history.pushUndo(swap(edit));
+        return true;
+    }
+
+    public boolean canUndo() {
+        return history.canUndo();
+    }
+
+    public boolean canRedo() {
+        return history.canRedo();
+    }
+
+    /*
+     * Writes the saved pixels of @edit back into their tiles and returns the
+     * edit that reverts this, holding the pixels the tiles had just before
+     */
+    private EditHistory.Edit swap(EditHistory.Edit edit) {
+        EditHistory.Edit reverse = new EditHistory.Edit();
+        for (int i = edit.tiles.size() - 1; i >= 0; i--) {
+            int tile = edit.tiles.get(i);
+            int collageCol = tile % collageDimension;
+            int collageRow = tile / collageDimension;
+            reverse.add(tile, readTile(collageCol, collageRow));
+            writeTile(collageCol, collageRow, edit.pixels.get(i));
+            markDirty(collageCol, collageRow);
+        }
+        return reverse;
+    }
+
+    /*
+     * Turns the collage into a photomosaic: every tile is replaced by the
+     * image of @library whose mean color is closest to the tile's current mean
+     * color. Use it on a collage that still shows the scaled original (before
+     * makeCollage). Tiles are matched concurrently on @executor, one task per
+     * tile row.
+     *
+     * @param library images to pick from, with tileDimension thumbnails
+     * @param executor runs the matching tasks
+     */
+    public void makePhotomosaic(TileLibrary library, ExecutorService executor) {
+        if (library.getTileDimension() != tileDimension) {
+            throw new IllegalArgumentException("library thumbnails are " + library.getTileDimension()
+                    + " pixels, tiles are " + tileDimension);
+        }
+        long start = CollageMetrics.start();
+        history.begin();
+        List<Callable<Void>> rows = new ArrayList<>(collageDimension);
+        for (int r = 0; r < collageDimension; r++) {
+            final int collageRow = r;
+            rows.add(() -> {
+                for (int collageCol = 0; collageCol < collageDimension; collageCol++) {
+                    int mean = TileLibrary.meanColor(readTile(collageCol, collageRow));
+                    int[] thumbnail = library.thumbnail(library.closest(mean));
+                    commitTile(collageCol, collageRow, thumbnail.clone());
+                }
+                return null;
+            });
+        }
+        runAll(executor, rows, "build the photomosaic");
+        history.commit();
+        CollageMetrics.record(CollageMetrics.Operation.TILE_BATCH, start, collagePixels());
+    }
+
+    /*
+     * Applies a script of tile edits. All operations on the same tile are
+     * fused into one pipeline and every tile is read and written at most once:
+     * a replace discards the edits before it, and the colorize/grayscale steps
+     * after it run back to back over the tile raster (see PixelKernels).
+     * Operations on one tile keep their order, the result is the same as
+     * calling colorizeTile, grayscaleTile and replaceTile one by one.
+     *
+     * @param operations the tile edits, in order
+     */
+    public void applyTileOperations(List<TileOperation> operations) {
+        long start = CollageMetrics.start();
+        Collection<List<TileOperation>> tiles = groupByTile(operations);
+        history.begin();
+        for (List<TileOperation> tileOps : tiles) {
+            applyToTile(tileOps);
+        }
+        history.commit();
+        CollageMetrics.record(CollageMetrics.Operation.TILE_BATCH, start, tilePixels(tiles.size()));
+    }
+
+    /*
+     * Same as applyTileOperations(operations) but processes the edited tiles
+     * concurrently on @executor. Blocks until every tile has been written.
+     *
+     * @param operations the tile edits, in order
+     * @param executor runs one task per edited tile
+     */
+    public void applyTileOperations(List<TileOperation> operations, ExecutorService executor) {
+        long start = CollageMetrics.start();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (List<TileOperation> tileOps : groupByTile(operations)) {
+            tasks.add(() -> {
+                applyToTile(tileOps);
+                return null;
+            });
+        }
+        history.begin();
+        runAll(executor, tasks, "apply the tile operations");
+        history.commit();
+        CollageMetrics.record(CollageMetrics.Operation.TILE_BATCH, start, tilePixels(tasks.size()));
+    }
+
+    /*
+     * Applies the single edit @op and records it under @metric
+     */
+    private void editTile(CollageMetrics.Operation metric, TileOperation op) {
+        long start = CollageMetrics.start();
+        checkTile(op.getCollageCol(), op.getCollageRow());
+        history.begin();
+        applyToTile(Collections.singletonList(op));
+        history.commit();
+        CollageMetrics.record(metric, start, tilePixels(1));
+    }
+
+    // Number of pixels in the whole collage
+    private long collagePixels() {
+        long size = (long) tileDimension * collageDimension;
+        return size * size;
+    }
+
+    // Number of pixels in @tiles tiles
+    private long tilePixels(int tiles) {
+        return (long) tiles * tileDimension * tileDimension;
+    }
+
+    // Splits @operations per tile, keeping their order within each tile
+    private Collection<List<TileOperation>> groupByTile(List<TileOperation> operations) {
+        Map<Integer, List<TileOperation>> tiles = new LinkedHashMap<>();
+        for (TileOperation op : operations) {
+            checkTile(op.getCollageCol(), op.getCollageRow());
+            int tile = op.getCollageRow() * collageDimension + op.getCollageCol();
+            tiles.computeIfAbsent(tile, t -> new ArrayList<>()).add(op);
+        }
+        return tiles.values();
+    }
+
+    /*
+     * Runs the fused pipeline of @ops, which all target the same tile.
+     * Colorize steps are channel masks and consecutive ones are folded into a
+     * single mask; grayscale is marked with GRAY.
+     */
+    private void applyToTile(List<TileOperation> ops) {
+        int collageCol = ops.get(0).getCollageCol();
+        int collageRow = ops.get(0).getCollageRow();
+
+        int start = 0;
+        for (int k = ops.size() - 1; k >= 0; k--) {
+            if (ops.get(k).getKind() == TileOperation.Kind.REPLACE) {
+                start = k;
+                break;
+            }
+        }
+
+        int[] pixels;
+        if (ops.get(start).getKind() == TileOperation.Kind.REPLACE) {
+            pixels = loadTile(ops.get(start).getArgument()).clone();
+            start++;
+        } else {
+            pixels = readTile(collageCol, collageRow);
+        }
+
+        int[] steps = new int[ops.size() - start];
+        int count = 0;
+        for (int k = start; k < ops.size(); k++) {
+            int step = ops.get(k).getKind() == TileOperation.Kind.GRAYSCALE ? GRAY : channelMask(ops.get(k).getArgument());
+            if (count > 0 && step != GRAY && steps[count - 1] != GRAY) {
+                steps[count - 1] &= step;
+            } else if (count == 0 || step != GRAY || steps[count - 1] != GRAY) {
+                steps[count++] = step;
+            }
+        }
+
+        for (int k = 0; k < count; k++) {
+            if (steps[k] == GRAY) {
+                PixelKernels.grayscale(pixels, 0, pixels.length);
+            } else {
+                PixelKernels.mask(pixels, 0, pixels.length, steps[k]);
+            }
+        }
+
+        commitTile(collageCol, collageRow, pixels);
+    }
+
+    // Pipeline step meaning "grayscale"; never a valid mask since masks keep alpha
+    private static final int GRAY = 0;
+
+    /*
+     * Returns the mask keeping only @component of a packed pixel, as in
+     * colorizeTile. Any other component leaves the pixel black.
+     */
+    private static int channelMask(String component) {
+        if ("red".equals(component))
+            return 0xFFFF0000;
+        else if ("green".equals(component))
+            return 0xFF00FF00;
+        else if ("blue".equals(component))
+            return 0xFF0000FF;
+        return 0xFF000000;
+    }
+
+    // Throws if (collageCol, collageRow) is not a tile of this collage
+    private void checkTile(int collageCol, int collageRow) {
+        if (collageCol < 0 || collageCol >= collageDimension || collageRow < 0 || collageRow >= collageDimension) {
+            throw new IllegalArgumentException("tile (" + collageCol + ", " + collageRow + ") is outside the "
+                    + collageDimension + " x " + collageDimension + " collage");
+        }
+    }
+
+    /*
+     * Returns a copy of the pixels of tile (collageCol, collageRow)
+     *
+     * @return tileDimension * tileDimension packed pixels, row-major
+     */
+    private int[] readTile(int collageCol, int collageRow) {
+        int[] pixels = new int[tileDimension * tileDimension];
+        collageRaster.readBlock(collageCol * tileDimension, collageRow * tileDimension,
+                tileDimension, tileDimension, pixels);
+        return pixels;
+    }
+
+    /*
+     * Overwrites tile (collageCol, collageRow) with the result of an edit,
+     * saving its previous pixels for undo() and marking it dirty
+     *
+     * @param pixels tileDimension * tileDimension packed pixels, row-major,
+     *               not to be modified afterwards
+     */
+    private void commitTile(int collageCol, int collageRow, int[] pixels) {
+        int tile = collageRow * collageDimension + collageCol;
+        if (history.wants(tile)) {
+            history.capture(tile, readTile(collageCol, collageRow));
+        }
+        writeTile(collageCol, collageRow, pixels);
+        markDirty(collageCol, collageRow);
+    }
+
+    /*
+     * Overwrites tile (collageCol, collageRow) with @pixels
+     *
+     * @param pixels tileDimension * tileDimension packed pixels, row-major,
+     *               not to be modified afterwards
+     */
+    private void writeTile(int collageCol, int collageRow, int[] pixels) {
+        collageRaster.writeBlock(collageCol * tileDimension, collageRow * tileDimension,
+                tileDimension, tileDimension, pixels);
+    }
+
+    /*
+     * Runs every task on @executor and waits for all of them, rethrowing the
+     * first failure.
+     *
+     * @param what describes the work, for error messages
+     */
+    private static void runAll(ExecutorService executor, List<Callable<Void>> tasks, String what) {
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while trying to " + what, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to " + what, e.getCause());
         }
     }
 
@@ -314,7 +1340,7 @@ public class Collage {
      * @param color the {@code Color} object to convert to grayscale
      * @return a grayscale version of {@code color}
      */
-    private static Color toGray(Color color) {
+    static Color toGray(Color color) {
         int y = (int)(Math.round(intensity(color))); // round to nearest int
         Color gray = new Color(y, y, y);
         return gray;
@@ -0,0 +1,128 @@
+package art;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/*
+ * Repeatable throughput and allocation numbers for Collage.
+ *
+ * Sweeps every combination of source resolution, tileDimension and
+ * collageDimension over scale, makeCollage, colorizeTile, grayscaleTile and
+ * replaceTile. Each benchmark is warmed up, then timed for a fixed period,
+ * and reports ns/op, ops/s, bytes allocated per op and the allocation rate.
+ * Allocation comes from the per-thread allocation counter of the JVM, the
+ * same source the JMH gc profiler reads.
+ *
+ * The source images are random noise generated at setup and written to a
+ * temporary directory, so no input files or network are needed. There is no
+ * JMH dependency because the assignments build without a build tool.
+ *
+ * Usage: java art.CollageBenchmark [seconds per benchmark, default 1]
+ */
+public class CollageBenchmark {
+
+    private static final int[] SOURCE_SIZES = {512, 2048, 4096};
+    private static final int[] TILE_DIMENSIONS = {50, 150};
+    private static final int[] COLLAGE_DIMENSIONS = {4, 16};
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final double seconds;
+
+    private CollageBenchmark(double seconds) {
+        this.seconds = seconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        File dir = File.createTempFile("collage-bench", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IllegalStateException("cannot create " + dir);
+        }
+        dir.deleteOnExit();
+
+        new CollageBenchmark(seconds).run(dir);
+    }
+
+    private void run(File dir) {
+        System.out.printf("%-14s %6s %4s %4s %14s %12s %14s %10s%n",
+                "benchmark", "source", "td", "cd", "ns/op", "ops/s", "bytes/op", "MB/s");
+
+        for (int size : SOURCE_SIZES) {
+            String source = synthetic(dir, "source-" + size, size, size, size);
+            String replacement = synthetic(dir, "replacement-" + size, size, size / 2, -size);
+
+            for (int td : TILE_DIMENSIONS) {
+                for (int cd : COLLAGE_DIMENSIONS) {
+                    Collage collage = new Collage(source, td, cd);
+                    collage.makeCollage();
+                    Picture original = collage.getOriginalPicture();
+                    Picture tile = new Picture(td, td);
+                    int[] next = {0};
+
+                    report("scale", size, td, cd, () -> Collage.scale(original, tile));
+                    report("makeCollage", size, td, cd, collage::makeCollage);
+                    report("colorizeTile", size, td, cd, () -> {
+                        int t = next[0]++ % (cd * cd);
+                        collage.colorizeTile("red", t % cd, t / cd);
+                    });
+                    report("grayscaleTile", size, td, cd, () -> {
+                        int t = next[0]++ % (cd * cd);
+                        collage.grayscaleTile(t % cd, t / cd);
+                    });
+                    report("replaceTile", size, td, cd, () -> {
+                        int t = next[0]++ % (cd * cd);
+                        collage.replaceTile(replacement, t % cd, t / cd);
+                    });
+                }
+            }
+        }
+    }
+
+    // Warms @op up, times it for the configured period and prints one line
+    private void report(String name, int size, int td, int cd, Runnable op) {
+        long period = (long) (seconds * 1e9);
+        loop(op, period / 2);
+
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long ops = loop(op, period);
+        long elapsed = System.nanoTime() - start;
+        long bytes = THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        System.out.printf("%-14s %6d %4d %4d %14.0f %12.1f %14.0f %10.1f%n",
+                name, size, td, cd, (double) elapsed / ops, ops * 1e9 / elapsed,
+                (double) bytes / ops, bytes / 1e6 / (elapsed / 1e9));
+    }
+
+    // Runs @op until @nanos have passed (at least once), returns the count
+    private static long loop(Runnable op, long nanos) {
+        long end = System.nanoTime() + nanos;
+        long ops = 0;
+        do {
+            op.run();
+            ops++;
+        } while (System.nanoTime() < end);
+        return ops;
+    }
+
+    // Writes a width x height image of seeded random noise and returns its path
+    private static String synthetic(File dir, String name, int width, int height, long seed) {
+        Random random = new Random(seed);
+        Picture picture = new Picture(width, height);
+        int[] row = new int[width];
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                row[c] = 0xFF000000 | random.nextInt(0x1000000);
+            }
+            Collage.writeRow(picture, 0, r, row, 0, width);
+        }
+        File file = new File(dir, name + ".png");
+        file.deleteOnExit();
+        picture.save(file.getPath());
+        return file.getPath();
+    }
+}
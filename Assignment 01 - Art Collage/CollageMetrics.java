@@ -0,0 +1,222 @@
+package art;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/*
+ * Call counts, cumulative time and pixels processed for the Collage
+ * operations, shared by all collages in the JVM.
+ *
+ * Recording is off by default. While it is off every instrumented call only
+ * reads one volatile flag; while it is on it adds two System.nanoTime calls
+ * and three LongAdder increments, which stay cheap under contention from
+ * parallel makeCollage or batch edits.
+ *
+ * Read the numbers with snapshot(), or call registerMBean() to publish them
+ * over JMX as art:type=CollageMetrics.
+ */
+public final class CollageMetrics {
+
+    // Instrumented operations
+    public enum Operation {
+        // A Collage constructor: decoding the original and the first scale
+        CONSTRUCT,
+        // Direct calls of the public Collage.scale methods; the scaling done
+        // inside a constructor only counts under CONSTRUCT
+        SCALE,
+        MAKE_COLLAGE,
+        COLORIZE_TILE,
+        GRAYSCALE_TILE,
+        REPLACE_TILE,
+        // applyTileOperations, replaceTiles and makePhotomosaic, per tile written
+        TILE_BATCH
+    }
+
+    private static volatile boolean enabled;
+
+    // start() value meaning recording was off; System.nanoTime() may return 0
+    private static final long OFF = Long.MIN_VALUE;
+
+    private static final Map<Operation, LongAdder[]> COUNTERS = new EnumMap<>(Operation.class);
+
+    static {
+        for (Operation op : Operation.values()) {
+            COUNTERS.put(op, new LongAdder[] {new LongAdder(), new LongAdder(), new LongAdder()});
+        }
+    }
+
+    private CollageMetrics() {
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * Returns the start time to hand to record(), OFF when recording is off
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : OFF;
+    }
+
+    /*
+     * Records one call of @op that began at @start (from start()) and
+     * processed @pixels pixels. Does nothing if recording was off at start.
+     */
+    static void record(Operation op, long start, long pixels) {
+        if (start != OFF) {
+            long elapsed = System.nanoTime() - start;
+            LongAdder[] counters = COUNTERS.get(op);
+            counters[0].increment();
+            counters[1].add(elapsed);
+            counters[2].add(pixels);
+        }
+    }
+
+    /*
+     * Sets every counter back to zero
+     */
+    public static void reset() {
+        for (LongAdder[] counters : COUNTERS.values()) {
+            for (LongAdder counter : counters) {
+                counter.reset();
+            }
+        }
+    }
+
+    /*
+     * Returns the current counters. The values of one operation are read one
+     * after the other, so calls finishing meanwhile may be partly included.
+     *
+     * @return a snapshot of all operations
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /*
+     * Publishes the counters on the platform MBean server as
+     * art:type=CollageMetrics. Does nothing if it is already registered.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("art:type=CollageMetrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new StandardMBean(new Bean(), MetricsMXBean.class, true), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register the collage metrics MBean", e);
+        }
+    }
+
+    /*
+     * Immutable copy of the counters
+     */
+    public static final class Snapshot {
+        private final Map<Operation, long[]> values = new EnumMap<>(Operation.class);
+
+        private Snapshot() {
+            for (Map.Entry<Operation, LongAdder[]> entry : COUNTERS.entrySet()) {
+                LongAdder[] c = entry.getValue();
+                values.put(entry.getKey(), new long[] {c[0].sum(), c[1].sum(), c[2].sum()});
+            }
+        }
+
+        public long calls(Operation op) {
+            return values.get(op)[0];
+        }
+
+        public long nanos(Operation op) {
+            return values.get(op)[1];
+        }
+
+        public long pixels(Operation op) {
+            return values.get(op)[2];
+        }
+
+        // Pixels per second over all recorded calls of @op, 0 if none
+        public double pixelsPerSecond(Operation op) {
+            return nanos(op) == 0 ? 0 : pixels(op) * 1e9 / nanos(op);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Operation op : Operation.values()) {
+                if (calls(op) > 0) {
+                    sb.append(String.format("%-14s %8d calls %12.3f ms %14d px %12.0f px/s%n",
+                            op, calls(op), nanos(op) / 1e6, pixels(op), pixelsPerSecond(op)));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /*
+     * JMX view of the counters, keyed by operation name
+     */
+    public interface MetricsMXBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean on);
+
+        Map<String, Long> getCalls();
+
+        Map<String, Long> getNanos();
+
+        Map<String, Long> getPixels();
+
+        void reset();
+    }
+
+    private static final class Bean implements MetricsMXBean {
+        @Override
+        public boolean isEnabled() {
+            return CollageMetrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean on) {
+            CollageMetrics.setEnabled(on);
+        }
+
+        @Override
+        public Map<String, Long> getCalls() {
+            return column(0);
+        }
+
+        @Override
+        public Map<String, Long> getNanos() {
+            return column(1);
+        }
+
+        @Override
+        public Map<String, Long> getPixels() {
+            return column(2);
+        }
+
+        @Override
+        public void reset() {
+            CollageMetrics.reset();
+        }
+
+        private static Map<String, Long> column(int i) {
+            Map<String, Long> column = new LinkedHashMap<>();
+            for (Map.Entry<Operation, LongAdder[]> entry : COUNTERS.entrySet()) {
+                column.put(entry.getKey().name(), entry.getValue()[i].sum());
+            }
+            return column;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package art;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+/*
+ * Bounded undo/redo history of tile edits for a Collage.
+ *
+ * An edit is everything one Collage call changed (one colorizeTile, or a whole
+ * batch). For each tile it touched, only the pixels the tile had before the
+ * edit are kept; undoing an edit swaps them with the current pixels, which
+ * then become the redo data. The pixels of all undo and redo steps together
+ * stay under limitBytes; the oldest steps are dropped first, and an edit
+ * larger than the limit is not recorded at all. A limit of 0 turns the
+ * history off.
+ */
+final class EditHistory {
+
+    /*
+     * The tiles changed by one edit with the pixels to restore
+     */
+    static final class Edit {
+        final List<Integer> tiles = new ArrayList<>();
+        final List<int[]> pixels = new ArrayList<>();
+        // Same tiles as @tiles, for constant-time lookups while recording
+        final BitSet captured = new BitSet();
+        long bytes;
+
+        void add(int tile, int[] tilePixels) {
+            tiles.add(tile);
+            captured.set(tile);
+            pixels.add(tilePixels);
+            bytes += 4L * tilePixels.length;
+        }
+    }
+
+    private final Deque<Edit> undo = new ArrayDeque<>();
+    private final Deque<Edit> redo = new ArrayDeque<>();
+    private long limitBytes;
+    private long usedBytes;
+
+    // Edit being recorded, null when none
+    private Edit pending;
+
+    synchronized void setLimit(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + bytes);
+        }
+        limitBytes = bytes;
+        trim();
+    }
+
+    synchronized boolean isEnabled() {
+        return limitBytes > 0;
+    }
+
+    // Starts recording an edit
+    synchronized void begin() {
+        pending = limitBytes > 0 ? new Edit() : null;
+    }
+
+    /*
+     * Returns whether tile @tile still needs its pre-edit pixels captured for
+     * the pending edit
+     */
+    synchronized boolean wants(int tile) {
+        return pending != null && !pending.captured.get(tile);
+    }
+
+    /*
+     * Records the pixels tile @tile had before the pending edit. An edit that
+     * would not fit the limit on its own is dropped right away instead of at
+     * commit(), so a large batch never holds more than limitBytes of copies;
+     * nothing more is captured for it and, since it cannot be undone, the
+     * older steps are cleared as well.
+     */
+    synchronized void capture(int tile, int[] before) {
+        if (pending == null || pending.captured.get(tile)) {
+            return;
+        }
+        if (pending.bytes + 4L * before.length > limitBytes) {
+            pending = null;
+            clear();
+            return;
+        }
+        pending.add(tile, before);
+    }
+
+    // Finishes the pending edit, making it the newest undo step
+    synchronized void commit() {
+        if (pending != null && !pending.tiles.isEmpty()) {
+            usedBytes -= bytes(redo);
+            redo.clear();
+            undo.push(pending);
+            usedBytes += pending.bytes;
+            trim();
+        }
+        pending = null;
+    }
+
+    synchronized Edit popUndo() {
+        Edit edit = undo.poll();
+        if (edit != null) {
+            usedBytes -= edit.bytes;
+        }
+        return edit;
+    }
+
+    synchronized Edit popRedo() {
+        Edit edit = redo.poll();
+        if (edit != null) {
+            usedBytes -= edit.bytes;
+        }
+        return edit;
+    }
+
+    synchronized void pushUndo(Edit edit) {
+        undo.push(edit);
+        usedBytes += edit.bytes;
+        trim();
+    }
+
+    synchronized void pushRedo(Edit edit) {
+        redo.push(edit);
+        usedBytes += edit.bytes;
+        trim();
+    }
+
+    synchronized boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    synchronized boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    synchronized void clear() {
+        undo.clear();
+        redo.clear();
+        usedBytes = 0;
+    }
+
+    // Drops the oldest steps, redo steps last, until the history fits its limit
+    private void trim() {
+        while (usedBytes > limitBytes && !undo.isEmpty()) {
+            usedBytes -= undo.removeLast().bytes;
+        }
+        while (usedBytes > limitBytes && !redo.isEmpty()) {
+            usedBytes -= redo.removeLast().bytes;
+        }
+    }
+
+    private static long bytes(Deque<Edit> edits) {
+        long total = 0;
+        for (Edit edit : edits) {
+            total += edit.bytes;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,128 @@
+package art;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * A Raster stored outside the Java heap, in a memory-mapped file.
+ *
+ * Pixels are kept row-major as native-order ints. A single mapping is
+ * limited to 2 GB, so the file is mapped as a series of segments of whole
+ * rows. The operating system pages the data in and out as needed, so the
+ * raster may be larger than both the heap and physical memory, and it never
+ * adds to garbage collection work.
+ *
+ * Writes to different pixels may come from different threads. The mapping
+ * is released when the raster is garbage collected; the file is left on disk.
+ */
+final class MappedRaster implements Raster {
+
+    // Largest segment mapped at once
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final int width;
+    private final int height;
+    private final int rowsPerSegment;
+    private final IntBuffer[] segments;
+
+    /*
+     * Creates (or truncates) @file to hold a width x height raster of black
+     * pixels and maps it.
+     */
+    MappedRaster(Path file, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("raster must not be empty: " + width + " x " + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.rowsPerSegment = (int) Math.max(1, SEGMENT_BYTES / (4L * width));
+        this.segments = new IntBuffer[(height + rowsPerSegment - 1) / rowsPerSegment];
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int s = 0; s < segments.length; s++) {
+                long firstRow = (long) s * rowsPerSegment;
+                long rows = Math.min(rowsPerSegment, height - firstRow);
+                segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, firstRow * width * 4, rows * width * 4)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        }
+
+        // A new file reads as zeros, make it opaque black like a new Picture
+        int[] black = new int[width];
+        Arrays.fill(black, 0xFF000000);
+        for (int row = 0; row < height; row++) {
+            writeRow(0, row, black, 0, width);
+        }
+    }
+
+    /*
+     * Returns a copy of this raster in the new mapped file @file (created or
+     * truncated), copied one row at a time so the pixels stay off the heap
+     */
+    MappedRaster copy(Path file) throws IOException {
+        MappedRaster copy = new MappedRaster(file, width, height);
+        int[] row = new int[width];
+        for (int j = 0; j < height; j++) {
+            readRow(0, j, row, 0, width);
+            copy.writeRow(0, j, row, 0, width);
+        }
+        return copy;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public int getRGB(int col, int row) {
+        check(col, row);
+        return segments[row / rowsPerSegment].get((row % rowsPerSegment) * width + col);
+    }
+
+    @Override
+    public void setRGB(int col, int row, int rgb) {
+        check(col, row);
+        segments[row / rowsPerSegment].put((row % rowsPerSegment) * width + col, rgb);
+    }
+
+    @Override
+    public void readRow(int col, int row, int[] pixels, int offset, int length) {
+        check(col, row);
+        check(col + length - 1, row);
+        IntBuffer segment = segments[row / rowsPerSegment];
+        int index = (row % rowsPerSegment) * width + col;
+        for (int i = 0; i < length; i++) {
+            pixels[offset + i] = segment.get(index + i);
+        }
+    }
+
+    @Override
+    public void writeRow(int col, int row, int[] pixels, int offset, int length) {
+        check(col, row);
+        check(col + length - 1, row);
+        IntBuffer segment = segments[row / rowsPerSegment];
+        int index = (row % rowsPerSegment) * width + col;
+        for (int i = 0; i < length; i++) {
+            segment.put(index + i, pixels[offset + i]);
+        }
+    }
+
+    private void check(int col, int row) {
+        if (col < 0 || col >= width || row < 0 || row >= height) {
+            throw new IllegalArgumentException("pixel (" + col + ", " + row + ") is outside the "
+                    + width + " x " + height + " raster");
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package art;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A power-of-two downsampling pyramid of a picture.
+ *
+ * Level 0 is the picture itself; every following level halves the width and
+ * height of the previous one (rounding down, never below 1) by averaging
+ * 2 x 2 blocks. Building the pyramid reads the picture once, and costs a
+ * third of its size in extra memory. A scale request starts from the
+ * smallest level that is still at least as large as the target, so it reads
+ * far fewer source pixels, and the box-filtered level also aliases less than
+ * sampling the full resolution picture.
+ *
+ * A Mipmap never changes once built and can be shared by several Collages.
+ */
+public class Mipmap {
+
+    private final Picture source;
+
+    // Levels 1.. as packed rasters, level k at index k - 1
+    private final List<int[]> levels = new ArrayList<>();
+    private final List<int[]> sizes = new ArrayList<>();
+
+    /*
+     * Builds the pyramid of @source down to a 1 x 1 level
+     *
+     * @param source the full resolution picture, must not be modified afterwards
+     */
+    public Mipmap(Picture source) {
+        this.source = source;
+        int width = source.width();
+        int height = source.height();
+        sizes.add(new int[] {width, height});
+
+        int[] previous = null;
+        while (width > 1 || height > 1) {
+            int w = Math.max(1, width / 2);
+            int h = Math.max(1, height / 2);
+            int[] level = new int[w * h];
+            int[] top = new int[width];
+            int[] bottom = new int[width];
+            for (int row = 0; row < h; row++) {
+                int r0 = Math.min(2 * row, height - 1);
+                int r1 = Math.min(2 * row + 1, height - 1);
+                readRow(previous, width, r0, top);
+                readRow(previous, width, r1, bottom);
+                for (int col = 0; col < w; col++) {
+                    int c0 = Math.min(2 * col, width - 1);
+                    int c1 = Math.min(2 * col + 1, width - 1);
+                    level[row * w + col] = average(top[c0], top[c1], bottom[c0], bottom[c1]);
+                }
+            }
+            levels.add(level);
+            sizes.add(new int[] {w, h});
+            previous = level;
+            width = w;
+            height = h;
+        }
+    }
+
+    /*
+     * Builds the pyramid of the image in @filename
+     *
+     * @param filename the image filename
+     */
+    public Mipmap(String filename) {
+        this(new Picture(filename));
+    }
+
+    // The full resolution picture (level 0)
+    public Picture getSource() {
+        return source;
+    }
+
+    // Number of levels, including level 0
+    public int levels() {
+        return sizes.size();
+    }
+
+    public int width(int level) {
+        return sizes.get(level)[0];
+    }
+
+    public int height(int level) {
+        return sizes.get(level)[1];
+    }
+
+    /*
+     * Returns the smallest level whose width and height are both at least
+     * width x height, or 0 if the target is larger than the picture
+     */
+    public int levelFor(int width, int height) {
+        int level = 0;
+        while (level + 1 < levels() && width(level + 1) >= width && height(level + 1) >= height) {
+            level++;
+        }
+        return level;
+    }
+
+    /*
+     * Returns the picture scaled to width x height with @mode, starting from
+     * levelFor(width, height)
+     *
+     * @param width target width
+     * @param height target height
+     * @param mode the resampling filter
+     * @return width * height packed pixels
+     */
+    public int[] scale(int width, int height, Resampling mode) {
+        int level = levelFor(width, height);
+        if (level == 0) {
+            return Collage.scaledRaster(source, width, height, mode);
+        }
+        int[] pixels = levels.get(level - 1);
+        int sourceWidth = width(level);
+        int sourceHeight = height(level);
+        if (mode != Resampling.NEAREST) {
+            return Resampler.resample((row, into) -> System.arraycopy(pixels, row * sourceWidth, into, 0, sourceWidth),
+                    sourceWidth, sourceHeight, width, height, mode);
+        }
+        int[] target = new int[width * height];
+        Collage.scale(pixels, sourceWidth, sourceHeight, target, width, height);
+        return target;
+    }
+
+    /*
+     * Scales the picture into @target with @mode, starting from the nearest
+     * larger level
+     *
+     * @param target the picture receiving the scaled pixels
+     * @param mode the resampling filter
+     */
+    public void scale(Picture target, Resampling mode) {
+        int width = target.width();
+        int[] pixels = scale(width, target.height(), mode);
+        for (int row = 0; row < target.height(); row++) {
+            Collage.writeRow(target, 0, row, pixels, row * width, width);
+        }
+    }
+
+    // Reads row @row of the previous level, the source picture when it is null
+    private void readRow(int[] previous, int width, int row, int[] into) {
+        if (previous == null) {
+            Collage.readRow(source, 0, row, into, 0, width);
+        } else {
+            System.arraycopy(previous, row * width, into, 0, width);
+        }
+    }
+
+    // Rounded per-channel average of four packed pixels
+    private static int average(int a, int b, int c, int d) {
+        int r = ((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF);
+        int g = ((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF);
+        int bl = (a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF);
+        return 0xFF000000 | ((r + 2) >> 2) << 16 | ((g + 2) >> 2) << 8 | ((bl + 2) >> 2);
+    }
+}
@@ -0,0 +1,47 @@
+package art;
+
+/*
+ * A Raster stored in a Picture, the regular Collage backing.
+ */
+final class PictureRaster implements Raster {
+
+    private final Picture picture;
+
+    PictureRaster(Picture picture) {
+        this.picture = picture;
+    }
+
+    Picture getPicture() {
+        return picture;
+    }
+
+    @Override
+    public int width() {
+        return picture.width();
+    }
+
+    @Override
+    public int height() {
+        return picture.height();
+    }
+
+    @Override
+    public int getRGB(int col, int row) {
+        return picture.getRGB(col, row);
+    }
+
+    @Override
+    public void setRGB(int col, int row, int rgb) {
+        picture.setRGB(col, row, rgb);
+    }
+
+    @Override
+    public void readRow(int col, int row, int[] pixels, int offset, int length) {
+        Collage.readRow(picture, col, row, pixels, offset, length);
+    }
+
+    @Override
+    public void writeRow(int col, int row, int[] pixels, int offset, int length) {
+        Collage.writeRow(picture, col, row, pixels, offset, length);
+    }
+}
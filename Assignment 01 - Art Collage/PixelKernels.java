@@ -0,0 +1,135 @@
+package art;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/*
+ * Bulk pixel kernels over packed ARGB rasters, used by Collage for its tile
+ * edits.
+ *
+ * Each kernel is a plain counted loop over an int[] range with no calls and
+ * no allocation in its body, so the JIT can unroll it and (for the channel
+ * masks) turn it into vector instructions. The JDK Vector API would need an
+ * incubator module, which the JDK 11 baseline of this project does not have.
+ *
+ * Verification mode (setVerify(true), or -Dart.verifyKernels=true) checks
+ * every grayscale result against the scalar Color-based Collage.toGray and
+ * throws IllegalStateException on the first mismatch.
+ */
+public final class PixelKernels {
+
+    private static volatile boolean verify = Boolean.getBoolean("art.verifyKernels");
+
+    // Fixed point luminance tables, see gray(int)
+    private static final int SHIFT = 28;
+    private static final long FRACTION = (1L << SHIFT) - 1;
+    private static final long M = ((1L << SHIFT) + 999) / 1000;
+    private static final long[] RED = new long[256];
+    private static final long[] GREEN = new long[256];
+    private static final long[] BLUE = new long[256];
+
+    static {
+        for (int v = 0; v < 256; v++) {
+            RED[v] = 299L * v * M;
+            GREEN[v] = 587L * v * M;
+            BLUE[v] = (114L * v + 500) * M;
+        }
+    }
+
+    private PixelKernels() {
+    }
+
+    /*
+     * Turns verification mode on or off
+     *
+     * @param on true to check kernels against the scalar reference
+     */
+    public static void setVerify(boolean on) {
+        verify = on;
+    }
+
+    /*
+     * Returns whether verification mode is on
+     *
+     * @return verify
+     */
+    public static boolean isVerify() {
+        return verify;
+    }
+
+    /*
+     * Replaces pixels[from..to) with their NTSC grayscale, same rounding as
+     * Collage.toGray.
+     *
+     * @param pixels packed ARGB pixels
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     */
+    public static void grayscale(int[] pixels, int from, int to) {
+        int[] original = verify ? Arrays.copyOfRange(pixels, from, to) : null;
+        for (int i = from; i < to; i++) {
+            pixels[i] = gray(pixels[i]);
+        }
+        if (original != null) {
+            for (int i = from; i < to; i++) {
+                int expected = Collage.toGray(new Color(original[i - from])).getRGB();
+                if (pixels[i] != expected) {
+                    throw new IllegalStateException(String.format(
+                            "grayscale kernel gave %08x for %08x, scalar toGray gives %08x",
+                            pixels[i], original[i - from], expected));
+                }
+            }
+        }
+    }
+
+    /*
+     * Keeps only the channels selected by @mask in pixels[from..to), as
+     * colorizeTile does for a single component.
+     *
+     * @param pixels packed ARGB pixels
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @param mask the channel bits to keep
+     */
+    public static void mask(int[] pixels, int from, int to, int mask) {
+        for (int i = from; i < to; i++) {
+            pixels[i] &= mask;
+        }
+    }
+
+    /*
+     * Returns the packed grayscale of one packed pixel.
+     *
+     * The luminance is computed in fixed point from three 256-entry tables and
+     * two long adds. With s = 299r + 587g + 114b the tables sum to
+     * (s + 500) * M, where M = ceil(2^28 / 1000), so the top bits are exactly
+     * round-half-up(s / 1000) for every 8-bit input, and a shade of gray
+     * (s = 1000r) maps to r. The only inputs where that could differ from
+     * Math.round on the double formula are exact ties (s ending in 500); those
+     * leave a fraction below M and are handed to the scalar formula.
+     *
+     * @param rgb packed ARGB pixel
+     * @return opaque gray pixel
+     */
+    static int gray(int rgb) {
+        long t = RED[(rgb >> 16) & 0xFF] + GREEN[(rgb >> 8) & 0xFF] + BLUE[rgb & 0xFF];
+        if ((t & FRACTION) < M) {
+            return scalarGray(rgb);
+        }
+        int y = (int) (t >>> SHIFT);
+        return 0xFF000000 | (y << 16) | (y << 8) | y;
+    }
+
+    /*
+     * Double precision grayscale of one packed pixel, same formula and
+     * rounding as Collage.toGray
+     */
+    static int scalarGray(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        double intensity = (r == g && r == b) ? r : 0.299 * r + 0.587 * g + 0.114 * b;
+        int y = (int) Math.round(intensity);
+        return 0xFF000000 | (y << 16) | (y << 8) | y;
+    }
+}
@@ -0,0 +1,142 @@
+package art;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/*
+ * Encodes an opaque RGB image to PNG while its rows are still being produced.
+ *
+ * Rows are handed over a strip at a time with writeRows and compressed
+ * straight into IDAT chunks, so the encoder never holds more than one strip
+ * plus a small chunk buffer, whatever the size of the image. Rows must be
+ * written top to bottom and close() must be called after the last one.
+ */
+final class PngStripWriter implements AutoCloseable {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    // Compressed bytes are emitted as IDAT chunks of at most this size
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final DeflaterOutputStream compressed;
+    private final byte[] line;
+    private int rowsWritten;
+
+    /*
+     * Writes the PNG header for a width x height image to @out
+     */
+    PngStripWriter(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("image must not be empty: " + width + " x " + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.line = new byte[1 + 3 * width];
+
+        out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        writeInt(header, width);
+        writeInt(header, height);
+        header.write(8); // bits per channel
+        header.write(2); // color type: truecolor
+        header.write(0); // compression: deflate
+        header.write(0); // filter method: adaptive
+        header.write(0); // no interlace
+        writeChunk("IHDR", header.toByteArray(), header.size());
+
+        // Created last so a failed header does not leave native zlib memory behind
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        compressed = new DeflaterOutputStream(new IdatStream(), deflater, CHUNK_SIZE);
+    }
+
+    /*
+     * Encodes @rows rows of packed pixels, starting at pixels[offset], each
+     * width pixels long.
+     */
+    void writeRows(int[] pixels, int offset, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("image has only " + height + " rows");
+        }
+        for (int r = 0; r < rows; r++) {
+            line[0] = 0; // filter type: none
+            int in = offset + r * width;
+            for (int i = 0, o = 1; i < width; i++) {
+                int rgb = pixels[in + i];
+                line[o++] = (byte) (rgb >> 16);
+                line[o++] = (byte) (rgb >> 8);
+                line[o++] = (byte) rgb;
+            }
+            compressed.write(line);
+        }
+        rowsWritten += rows;
+    }
+
+    /*
+     * Flushes the compressed data and writes the end of the image. Does not
+     * close the underlying stream. The deflater is always released; if not
+     * every row was written, e.g. because the export failed, the image is
+     * left unfinished and IllegalStateException is thrown.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IllegalStateException("wrote " + rowsWritten + " of " + height + " rows");
+            }
+            compressed.finish();
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Writes one chunk: length, type, data and the CRC of type and data
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+        ByteArrayOutputStream head = new ByteArrayOutputStream(8);
+        writeInt(head, length);
+        head.write(name);
+        head.writeTo(out);
+        out.write(data, 0, length);
+        ByteArrayOutputStream tail = new ByteArrayOutputStream(4);
+        writeInt(tail, (int) crc.getValue());
+        tail.writeTo(out);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    // Receives the deflate output and wraps every write in an IDAT chunk
+    private final class IdatStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                byte[] data = off == 0 ? b : Arrays.copyOfRange(b, off, off + len);
+                writeChunk("IDAT", data, len);
+            }
+        }
+    }
+}
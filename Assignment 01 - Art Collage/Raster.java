@@ -0,0 +1,58 @@
+package art;
+
+/*
+ * Pixel storage behind a Collage. Pixels are packed ARGB ints addressed by
+ * (col, row) with (0, 0) the upper leftmost pixel, the same semantics as
+ * Picture.getRGB/setRGB.
+ */
+interface Raster {
+
+    int width();
+
+    int height();
+
+    int getRGB(int col, int row);
+
+    void setRGB(int col, int row, int rgb);
+
+    /*
+     * Reads length pixels of row @row, starting at column @col, into
+     * pixels[offset..offset+length)
+     */
+    default void readRow(int col, int row, int[] pixels, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            pixels[offset + i] = getRGB(col + i, row);
+        }
+    }
+
+    /*
+     * Writes pixels[offset..offset+length) into row @row, starting at column
+     * @col
+     */
+    default void writeRow(int col, int row, int[] pixels, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            setRGB(col + i, row, pixels[offset + i]);
+        }
+    }
+
+    /*
+     * Reads the width x height block whose upper left pixel is (col, row)
+     * into @pixels, row-major
+     */
+    default void readBlock(int col, int row, int width, int height, int[] pixels) {
+        for (int j = 0; j < height; j++) {
+            readRow(col, row + j, pixels, j * width, width);
+        }
+    }
+
+    /*
+     * Overwrites the width x height block whose upper left pixel is
+     * (col, row) with @pixels, row-major. The raster may keep @pixels, the
+     * caller must not modify it afterwards.
+     */
+    default void writeBlock(int col, int row, int width, int height, int[] pixels) {
+        for (int j = 0; j < height; j++) {
+            writeRow(col, row + j, pixels, j * width, width);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package art;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Separable filtered resampling of packed ARGB rasters.
+ *
+ * A target image is computed in two passes: every source row is filtered
+ * horizontally into an intermediate source height x target width raster,
+ * which is then filtered vertically. Each pass uses a Kernel of 14-bit
+ * fixed point weights. Kernels only depend on the filter and on the
+ * (source length, target length) pair, so they are kept in a small LRU
+ * cache and shared by every image of the same size.
+ */
+final class Resampler {
+
+    // Weights are fixed point numbers with this many fraction bits
+    private static final int PRECISION = 14;
+    private static final int ONE = 1 << PRECISION;
+
+    // Number of kernels kept around
+    private static final int CACHE_SIZE = 64;
+
+    private static final Map<String, Kernel> KERNELS = new LinkedHashMap<String, Kernel>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Kernel> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private Resampler() {
+    }
+
+    /*
+     * Supplies source rows to resample(), so pictures can be filtered one
+     * row at a time without copying them into a raster first.
+     */
+    interface RowSource {
+        void read(int row, int[] pixels);
+    }
+
+    /*
+     * Returns the sourceWidth x sourceHeight image supplied by @rows resampled
+     * to width x height with @mode. NEAREST is handled by the callers.
+     *
+     * @param rows supplies the source rows
+     * @param sourceWidth source width
+     * @param sourceHeight source height
+     * @param width target width
+     * @param height target height
+     * @param mode filter to use, anything but NEAREST
+     * @return width * height packed pixels
+     */
+    static int[] resample(RowSource rows, int sourceWidth, int sourceHeight, int width, int height, Resampling mode) {
+        Kernel horizontal = kernel(mode, sourceWidth, width);
+        Kernel vertical = kernel(mode, sourceHeight, height);
+
+        // Horizontal pass, one source row at a time
+        int[] sourceRow = new int[sourceWidth];
+        int[] between = new int[sourceHeight * width];
+        for (int row = 0; row < sourceHeight; row++) {
+            rows.read(row, sourceRow);
+            horizontal.apply(sourceRow, 0, 1, between, row * width, 1);
+        }
+
+        // Vertical pass, one target column at a time
+        int[] target = new int[width * height];
+        for (int col = 0; col < width; col++) {
+            vertical.apply(between, col, width, target, col, width);
+        }
+        return target;
+    }
+
+    /*
+     * Returns the (cached) kernel that maps sourceLength pixels onto
+     * targetLength pixels with @mode.
+     */
+    static Kernel kernel(Resampling mode, int sourceLength, int targetLength) {
+        String key = mode + ":" + sourceLength + ":" + targetLength;
+        synchronized (KERNELS) {
+            Kernel kernel = KERNELS.get(key);
+            if (kernel == null) {
+                kernel = new Kernel(mode, sourceLength, targetLength);
+                KERNELS.put(key, kernel);
+            }
+            return kernel;
+        }
+    }
+
+    /*
+     * Weights of one axis. Target pixel i is the weighted sum of source pixels
+     * first[i] .. first[i] + count[i] - 1, with weights starting at
+     * weights[offset[i]]. The weights of a target pixel add up to ONE.
+     */
+    static final class Kernel {
+        private final int[] first;
+        private final int[] count;
+        private final int[] offset;
+        private final int[] weights;
+
+        Kernel(Resampling mode, int sourceLength, int targetLength) {
+            double scale = (double) sourceLength / targetLength;
+            double filterScale = Math.max(1.0, scale);
+            double support = radius(mode) * filterScale;
+
+            first = new int[targetLength];
+            count = new int[targetLength];
+            offset = new int[targetLength];
+            int taps = (int) Math.ceil(support) * 2 + 2;
+            int[] all = new int[targetLength * taps];
+            double[] raw = new double[taps];
+
+            int used = 0;
+            for (int i = 0; i < targetLength; i++) {
+                double center = (i + 0.5) * scale;
+                int lo = Math.max(0, (int) Math.floor(center - support));
+                int hi = Math.min(sourceLength, (int) Math.ceil(center + support));
+                hi = Math.min(hi, lo + taps);
+
+                double sum = 0;
+                for (int j = lo; j < hi; j++) {
+                    raw[j - lo] = weight(mode, j, center, filterScale);
+                    sum += raw[j - lo];
+                }
+                if (sum == 0) {
+                    // Degenerate window, fall back to the nearest source pixel
+                    lo = Math.min(sourceLength - 1, (int) center);
+                    hi = lo + 1;
+                    raw[0] = sum = 1;
+                }
+
+                // Quantize, then put the rounding error on the heaviest tap so
+                // a flat color stays exactly flat
+                int total = 0;
+                int heaviest = 0;
+                for (int j = 0; j < hi - lo; j++) {
+                    int w = (int) Math.round(raw[j] / sum * ONE);
+                    all[used + j] = w;
+                    total += w;
+                    if (w > all[used + heaviest]) {
+                        heaviest = j;
+                    }
+                }
+                all[used + heaviest] += ONE - total;
+
+                first[i] = lo;
+                count[i] = hi - lo;
+                offset[i] = used;
+                used += hi - lo;
+            }
+            weights = all;
+        }
+
+        /*
+         * Filters one line of packed pixels: source pixel k is at
+         * source[sourceStart + k * sourceStep], target pixel i goes to
+         * target[targetStart + i * targetStep].
+         */
+        void apply(int[] source, int sourceStart, int sourceStep, int[] target, int targetStart, int targetStep) {
+            for (int i = 0; i < first.length; i++) {
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                int in = sourceStart + first[i] * sourceStep;
+                int w = offset[i];
+                for (int k = 0; k < count[i]; k++, in += sourceStep, w++) {
+                    int rgb = source[in];
+                    int weight = weights[w];
+                    r += ((rgb >> 16) & 0xFF) * weight;
+                    g += ((rgb >> 8) & 0xFF) * weight;
+                    b += (rgb & 0xFF) * weight;
+                }
+                target[targetStart + i * targetStep] = 0xFF000000 | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+            }
+        }
+
+        private static int clamp(int value) {
+            int v = (value + (ONE >> 1)) >> PRECISION;
+            return v < 0 ? 0 : (v > 255 ? 255 : v);
+        }
+    }
+
+    // How far (in target pixels) the filter reaches from its center
+    private static double radius(Resampling mode) {
+        switch (mode) {
+            case BOX:
+                return 0.5;
+            case BILINEAR:
+                return 1.0;
+            case LANCZOS:
+                return 3.0;
+            default:
+                throw new IllegalArgumentException("no kernel for " + mode);
+        }
+    }
+
+    // Weight of source pixel j for a target pixel centered at @center
+    private static double weight(Resampling mode, int j, double center, double filterScale) {
+        if (mode == Resampling.BOX) {
+            // Overlap of source pixel [j, j + 1) with the target footprint
+            double lo = Math.max(j, center - filterScale / 2);
+            double hi = Math.min(j + 1, center + filterScale / 2);
+            return Math.max(0, hi - lo);
+        }
+        double x = Math.abs((j + 0.5 - center) / filterScale);
+        if (mode == Resampling.BILINEAR) {
+            return Math.max(0, 1 - x);
+        }
+        if (x >= 3) {
+            return 0;
+        }
+        if (x < 1e-9) {
+            return 1;
+        }
+        double px = Math.PI * x;
+        return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+    }
+}
@@ -0,0 +1,24 @@
+package art;
+
+/*
+ * Sampling filters understood by Collage.scale(Picture, Picture, Resampling).
+ *
+ * NEAREST is the filter used by scale(Picture, Picture); the other modes
+ * weigh several source pixels per target pixel, which avoids aliasing when a
+ * large image is shrunk into a small tile.
+ */
+public enum Resampling {
+
+    // One source pixel per target pixel, no filtering
+    NEAREST,
+
+    // Area average: every source pixel counts in proportion to how much of it
+    // the target pixel covers
+    BOX,
+
+    // Triangle (tent) filter, widened by the scale factor when shrinking
+    BILINEAR,
+
+    // Windowed sinc with three lobes, separable, sharpest of the filters
+    LANCZOS
+}
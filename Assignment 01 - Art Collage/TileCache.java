@@ -0,0 +1,145 @@
+package art;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+ * A bounded LRU cache of decoded images already scaled to a tile.
+ *
+ * Entries are keyed by (filename, file modification time, tileDimension,
+ * resampling filter), so editing a file on disk makes its old entries
+ * unreachable and they age out. The cache holds at most budgetBytes of
+ * pixel data (4 bytes per pixel); the least recently used tiles are evicted
+ * first. Safe to share between Collages and threads.
+ *
+ * Cached rasters are shared, callers must not modify them.
+ */
+public class TileCache {
+
+    private final long budgetBytes;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+
+    private final LinkedHashMap<Key, int[]> tiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    /*
+     * Creates an empty cache
+     *
+     * @param budgetBytes maximum number of bytes of pixel data kept
+     */
+    public TileCache(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("budget must not be negative: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+    }
+
+    /*
+     * Returns the image in @filename scaled to tileDimension x tileDimension
+     * with @mode, decoding and scaling it only on a cache miss.
+     *
+     * @param filename the image filename
+     * @param tileDimension tile width and height
+     * @param mode the resampling filter
+     * @return tileDimension * tileDimension packed pixels, read-only
+     */
+    int[] get(String filename, int tileDimension, Resampling mode) {
+        Key key = new Key(filename, new File(filename).lastModified(), tileDimension, mode);
+        synchronized (this) {
+            int[] tile = tiles.get(key);
+            if (tile != null) {
+                hits++;
+                return tile;
+            }
+            misses++;
+        }
+
+        // Decode outside the lock, so one slow file does not stall other threads
+        int[] tile = Collage.scaledRaster(new Picture(filename), tileDimension, tileDimension, mode);
+        long size = 4L * tile.length;
+
+        synchronized (this) {
+            if (size <= budgetBytes && !tiles.containsKey(key)) {
+                tiles.put(key, tile);
+                usedBytes += size;
+                evict();
+            }
+        }
+        return tile;
+    }
+
+    // Drops least recently used tiles until the cache fits in its budget
+    private void evict() {
+        Iterator<Map.Entry<Key, int[]>> eldest = tiles.entrySet().iterator();
+        while (usedBytes > budgetBytes && eldest.hasNext()) {
+            usedBytes -= 4L * eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    /*
+     * Removes every tile, hit/miss counters are kept
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        usedBytes = 0;
+    }
+
+    // Number of lookups answered from the cache
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    // Number of lookups that had to decode the file
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // Number of tiles currently cached
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    // Bytes of pixel data currently cached
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    // Maximum bytes of pixel data kept
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    private static final class Key {
+        private final String filename;
+        private final long modified;
+        private final int tileDimension;
+        private final Resampling mode;
+
+        Key(String filename, long modified, int tileDimension, Resampling mode) {
+            this.filename = filename;
+            this.modified = modified;
+            this.tileDimension = tileDimension;
+            this.mode = mode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return modified == other.modified && tileDimension == other.tileDimension
+                    && mode == other.mode && filename.equals(other.filename);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(filename, modified, tileDimension, mode);
+        }
+    }
+}
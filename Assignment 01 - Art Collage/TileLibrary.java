@@ -0,0 +1,241 @@
+package art;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * A library of images indexed by mean color, for Collage.makePhotomosaic.
+ *
+ * Each image is scaled to tileDimension x tileDimension when it is added, and
+ * the mean color of the scaled thumbnail is recorded. The means are kept in a
+ * 3-d tree over (red, green, blue), so the closest image to a color is found
+ * in about log(n) steps instead of comparing against every image. Thumbnails
+ * come from a TileCache, whose budget bounds how many stay decoded at once;
+ * evicted ones are decoded again when needed.
+ */
+public class TileLibrary {
+
+    private final int tileDimension;
+    private final TileCache cache;
+
+    private final List<String> filenames = new ArrayList<>();
+    private int[] means = new int[16];
+
+    // Image indices arranged as an implicit k-d tree, null when out of date
+    private int[] tree;
+
+    /*
+     * Creates an empty library
+     *
+     * @param tileDimension size the thumbnails are scaled to
+     * @param cache holds the decoded thumbnails
+     */
+    public TileLibrary(int tileDimension, TileCache cache) {
+        this.tileDimension = tileDimension;
+        this.cache = cache;
+    }
+
+    public int getTileDimension() {
+        return tileDimension;
+    }
+
+    // Number of images in the library
+    public synchronized int size() {
+        return filenames.size();
+    }
+
+    /*
+     * Adds the image in @filename to the library
+     *
+     * @param filename the image filename
+     */
+    public void add(String filename) {
+        int mean = meanColor(thumbnail(filename));
+        synchronized (this) {
+            if (filenames.size() == means.length) {
+                means = Arrays.copyOf(means, means.length * 2);
+            }
+            means[filenames.size()] = mean;
+            filenames.add(filename);
+            tree = null;
+        }
+    }
+
+    /*
+     * Adds every image in @files, decoding them concurrently on @executor.
+     * Blocks until all of them have been added.
+     *
+     * @param files the image filenames
+     * @param executor runs one task per image
+     */
+    public void addAll(List<String> files, ExecutorService executor) {
+        List<Callable<Void>> tasks = new ArrayList<>(files.size());
+        for (String filename : files) {
+            tasks.add(() -> {
+                add(filename);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while loading the tile library", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to load the tile library", e.getCause());
+        }
+    }
+
+    /*
+     * Returns the filename of the image whose mean color is closest to @rgb
+     *
+     * @param rgb packed color to match
+     * @return the closest image
+     */
+    public String closest(int rgb) {
+        int index = nearest(rgb);
+        synchronized (this) {
+            return filenames.get(index);
+        }
+    }
+
+    /*
+     * Returns the thumbnail of @filename, scaled to tileDimension. The raster
+     * is shared and must not be modified.
+     */
+    int[] thumbnail(String filename) {
+        return cache.get(filename, tileDimension, Resampling.BOX);
+    }
+
+    /*
+     * Returns the index of the image whose mean color is closest to @rgb
+     * (squared distance in RGB space)
+     */
+    int nearest(int rgb) {
+        int[] points;
+        int[] order;
+        synchronized (this) {
+            if (filenames.isEmpty()) {
+                throw new IllegalStateException("tile library is empty");
+            }
+            if (tree == null) {
+                int[] t = new int[filenames.size()];
+                for (int i = 0; i < t.length; i++) {
+                    t[i] = i;
+                }
+                build(t, 0, t.length, 0);
+                tree = t;
+            }
+            points = means;
+            order = tree;
+        }
+
+        // The tree is never changed once built, so searches run without the lock
+        long[] best = {Long.MAX_VALUE, -1};
+        search(points, order, 0, order.length, 0, rgb, best);
+        return (int) best[1];
+    }
+
+    // Arranges tree[lo..hi) so its median on @axis is in the middle, then recurses
+    private void build(int[] tree, int lo, int hi, int axis) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(tree, lo, hi - 1, mid, axis);
+        build(tree, lo, mid, (axis + 1) % 3);
+        build(tree, mid + 1, hi, (axis + 1) % 3);
+    }
+
+    // Quickselect: puts the k-th smallest of tree[lo..hi] on @axis at index k
+    private void select(int[] tree, int lo, int hi, int k, int axis) {
+        while (lo < hi) {
+            int pivot = channel(means[tree[(lo + hi) >>> 1]], axis);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (channel(means[tree[i]], axis) < pivot) {
+                    i++;
+                }
+                while (channel(means[tree[j]], axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int t = tree[i];
+                    tree[i] = tree[j];
+                    tree[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    // Nearest neighbour search in tree[lo..hi); best = {squared distance, index}
+    private static void search(int[] points, int[] tree, int lo, int hi, int axis, int rgb, long[] best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int point = points[tree[mid]];
+        long d = distance(point, rgb);
+        if (d < best[0]) {
+            best[0] = d;
+            best[1] = tree[mid];
+        }
+        int diff = channel(rgb, axis) - channel(point, axis);
+        int next = (axis + 1) % 3;
+        if (diff < 0) {
+            search(points, tree, lo, mid, next, rgb, best);
+            if ((long) diff * diff < best[0]) {
+                search(points, tree, mid + 1, hi, next, rgb, best);
+            }
+        } else {
+            search(points, tree, mid + 1, hi, next, rgb, best);
+            if ((long) diff * diff < best[0]) {
+                search(points, tree, lo, mid, next, rgb, best);
+            }
+        }
+    }
+
+    private static int channel(int rgb, int axis) {
+        return (rgb >> (16 - 8 * axis)) & 0xFF;
+    }
+
+    private static long distance(int a, int b) {
+        long dr = channel(a, 0) - channel(b, 0);
+        long dg = channel(a, 1) - channel(b, 1);
+        long db = channel(a, 2) - channel(b, 2);
+        return dr * dr + dg * dg + db * db;
+    }
+
+    /*
+     * Returns the mean color of @pixels as an opaque packed pixel
+     */
+    static int meanColor(int[] pixels) {
+        long r = 0;
+        long g = 0;
+        long b = 0;
+        for (int rgb : pixels) {
+            r += (rgb >> 16) & 0xFF;
+            g += (rgb >> 8) & 0xFF;
+            b += rgb & 0xFF;
+        }
+        int n = Math.max(1, pixels.length);
+        return 0xFF000000 | (int) (r / n) << 16 | (int) (g / n) << 8 | (int) (b / n);
+    }
+}
@@ -0,0 +1,82 @@
+package art;
+
+/*
+ * One tile edit for Collage.applyTileOperations: colorize, grayscale or
+ * replace the tile at (collageCol, collageRow). Tile (0,0) is the upper
+ * leftmost tile.
+ */
+public final class TileOperation {
+
+    enum Kind { COLORIZE, GRAYSCALE, REPLACE }
+
+    private final Kind kind;
+    private final String argument;
+    private final int collageCol;
+    private final int collageRow;
+
+    private TileOperation(Kind kind, String argument, int collageCol, int collageRow) {
+        this.kind = kind;
+        this.argument = argument;
+        this.collageCol = collageCol;
+        this.collageRow = collageRow;
+    }
+
+    /*
+     * Same edit as Collage.colorizeTile(component, collageCol, collageRow)
+     *
+     * @param component is either red, blue or green
+     * @param collageCol tile column
+     * @param collageRow tile row
+     * @return the operation
+     */
+    public static TileOperation colorize(String component, int collageCol, int collageRow) {
+        return new TileOperation(Kind.COLORIZE, component, collageCol, collageRow);
+    }
+
+    /*
+     * Same edit as Collage.grayscaleTile(collageCol, collageRow)
+     *
+     * @param collageCol tile column
+     * @param collageRow tile row
+     * @return the operation
+     */
+    public static TileOperation grayscale(int collageCol, int collageRow) {
+        return new TileOperation(Kind.GRAYSCALE, null, collageCol, collageRow);
+    }
+
+    /*
+     * Same edit as Collage.replaceTile(filename, collageCol, collageRow)
+     *
+     * @param filename image to replace tile
+     * @param collageCol tile column
+     * @param collageRow tile row
+     * @return the operation
+     */
+    public static TileOperation replace(String filename, int collageCol, int collageRow) {
+        return new TileOperation(Kind.REPLACE, filename, collageCol, collageRow);
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    // The color component of a colorize, the filename of a replace
+    String getArgument() {
+        return argument;
+    }
+
+    public int getCollageCol() {
+        return collageCol;
+    }
+
+    public int getCollageRow() {
+        return collageRow;
+    }
+
+    @Override
+    public String toString() {
+        String name = kind.name().toLowerCase();
+        return argument == null ? name + "(" + collageCol + ", " + collageRow + ")"
+                : name + "(" + argument + ", " + collageCol + ", " + collageRow + ")";
+    }
+}
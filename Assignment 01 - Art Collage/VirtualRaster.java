@@ -0,0 +1,240 @@
+package art;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A collage Raster whose pixels are computed when they are read.
+ *
+ * Until a base tile is set, pixel (col, row) is the nearest-neighbour sample
+ * of the source picture, i.e. the source scaled to the whole raster. Once
+ * makeCollage sets the base tile, pixel (col, row) is pixel
+ * (col % tileDimension, row % tileDimension) of that tile. Tiles that have
+ * been written to are kept in an override map, so memory grows with the
+ * number of edited tiles, not with the size of the raster.
+ *
+ * Tile blocks are flyweights: a block written to a tile is interned by
+ * content hash, so tiles with identical pixels (e.g. the same image stamped
+ * in many places) share one immutable block, and a tile written back to the
+ * base content drops its override. Single-pixel writes copy the tile's block
+ * on first write (copy-on-write) and then edit that private copy in place.
+ * copy() shares every block with the new raster, so cloning costs one map
+ * entry per edited tile.
+ */
+final class VirtualRaster implements Raster {
+
+    private final Picture source;
+    private final int tileDimension;
+    private final int collageDimension;
+    private final int[] sourceCols;
+    private final int[] sourceRows;
+
+    // Repeated tile after makeCollage, null while the raster is the scaled source
+    private int[] baseTile;
+
+    // Edited tiles by index row * collageDimension + col, tileDimension^2 pixels each
+    private final Map<Integer, int[]> overrides;
+
+    // Tiles whose override is a private copy this raster may modify in place;
+    // every other block is shared and never modified
+    private final BitSet owned;
+
+    // Interned blocks by content hash
+    private final Map<Integer, List<int[]>> pool;
+
+    VirtualRaster(Picture source, int tileDimension, int collageDimension) {
+        this.source = source;
+        this.tileDimension = tileDimension;
+        this.collageDimension = collageDimension;
+        int size = tileDimension * collageDimension;
+        this.sourceCols = Collage.indexTable(source.width(), size);
+        this.sourceRows = Collage.indexTable(source.height(), size);
+        this.overrides = new HashMap<>();
+        this.owned = new BitSet();
+        this.pool = new HashMap<>();
+    }
+
+    // Copy constructor, see copy()
+    private VirtualRaster(VirtualRaster other) {
+        this.source = other.source;
+        this.tileDimension = other.tileDimension;
+        this.collageDimension = other.collageDimension;
+        this.sourceCols = other.sourceCols;
+        this.sourceRows = other.sourceRows;
+        this.baseTile = other.baseTile;
+        this.overrides = new HashMap<>(other.overrides);
+        this.owned = new BitSet();
+        this.pool = new HashMap<>();
+        for (Map.Entry<Integer, List<int[]>> entry : other.pool.entrySet()) {
+            pool.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+    }
+
+    /*
+     * Returns a raster with the same pixels that shares every tile block with
+     * this one. Later writes to either raster do not show in the other.
+     */
+    synchronized VirtualRaster copy() {
+        // Private copies become shared from now on, intern them first
+        for (int tile = owned.nextSetBit(0); tile >= 0; tile = owned.nextSetBit(tile + 1)) {
+            putBlock(tile, overrides.get(tile));
+        }
+        owned.clear();
+        return new VirtualRaster(this);
+    }
+
+    /*
+     * Makes every tile a copy of @tile and drops all overrides
+     *
+     * @param tile tileDimension x tileDimension packed pixels, kept by the raster
+     */
+    synchronized void setBaseTile(int[] tile) {
+        baseTile = tile;
+        overrides.clear();
+        owned.clear();
+        pool.clear();
+    }
+
+    // Number of tiles stored as their own block
+    synchronized int overrideCount() {
+        return overrides.size();
+    }
+
+    // Number of distinct blocks held by the overrides
+    synchronized int distinctBlocks() {
+        Map<int[], Boolean> blocks = new IdentityHashMap<>();
+        for (int[] block : overrides.values()) {
+            blocks.put(block, Boolean.TRUE);
+        }
+        return blocks.size();
+    }
+
+    @Override
+    public int width() {
+        return tileDimension * collageDimension;
+    }
+
+    @Override
+    public int height() {
+        return tileDimension * collageDimension;
+    }
+
+    @Override
+    public synchronized int getRGB(int col, int row) {
+        check(col, row);
+        int[] tile = overrides.get(tileIndex(col, row));
+        if (tile != null) {
+            return tile[(row % tileDimension) * tileDimension + col % tileDimension];
+        }
+        return base(col, row);
+    }
+
+    @Override
+    public synchronized void setRGB(int col, int row, int rgb) {
+        check(col, row);
+        int index = tileIndex(col, row);
+        if (!owned.get(index)) {
+            int[] tile = new int[tileDimension * tileDimension];
+            readBlock(col - col % tileDimension, row - row % tileDimension, tileDimension, tileDimension, tile);
+            overrides.put(index, tile);
+            owned.set(index);
+        }
+        overrides.get(index)[(row % tileDimension) * tileDimension + col % tileDimension] = rgb;
+    }
+
+    @Override
+    public synchronized void readRow(int col, int row, int[] pixels, int offset, int length) {
+        int end = col + length;
+        while (col < end) {
+            int tileCol = col / tileDimension;
+            int within = col % tileDimension;
+            int run = Math.min(tileDimension - within, end - col);
+            int[] tile = overrides.get((row / tileDimension) * collageDimension + tileCol);
+            if (tile != null) {
+                System.arraycopy(tile, (row % tileDimension) * tileDimension + within, pixels, offset, run);
+            } else if (baseTile != null) {
+                System.arraycopy(baseTile, (row % tileDimension) * tileDimension + within, pixels, offset, run);
+            } else {
+                for (int i = 0; i < run; i++) {
+                    pixels[offset + i] = source.getRGB(sourceCols[col + i], sourceRows[row]);
+                }
+            }
+            col += run;
+            offset += run;
+        }
+    }
+
+    @Override
+    public synchronized void writeBlock(int col, int row, int width, int height, int[] pixels) {
+        // A whole aligned tile simply becomes that tile's (interned) block
+        if (width == tileDimension && height == tileDimension
+                && col % tileDimension == 0 && row % tileDimension == 0) {
+            int index = tileIndex(col, row);
+            owned.clear(index);
+            putBlock(index, pixels);
+        } else {
+            Raster.super.writeBlock(col, row, width, height, pixels);
+        }
+    }
+
+    /*
+     * Makes @block the content of tile @index, sharing an identical block
+     * (or the base tile) when there is one
+     */
+    private void putBlock(int index, int[] block) {
+        if (baseTile != null && Arrays.equals(block, baseTile)) {
+            overrides.remove(index);
+            return;
+        }
+        int hash = Arrays.hashCode(block);
+        List<int[]> candidates = pool.computeIfAbsent(hash, h -> new ArrayList<>(1));
+        for (int[] candidate : candidates) {
+            if (Arrays.equals(candidate, block)) {
+                overrides.put(index, candidate);
+                return;
+            }
+        }
+        candidates.add(block);
+        overrides.put(index, block);
+
+        // Drop blocks no tile uses anymore once the pool clearly outgrows the overrides
+        if (pool.size() > 2 * overrides.size() + 16) {
+            prunePool();
+        }
+    }
+
+    private void prunePool() {
+        Map<int[], Boolean> live = new IdentityHashMap<>();
+        for (int[] block : overrides.values()) {
+            live.put(block, Boolean.TRUE);
+        }
+        pool.values().removeIf(candidates -> {
+            candidates.removeIf(block -> !live.containsKey(block));
+            return candidates.isEmpty();
+        });
+    }
+
+    private void check(int col, int row) {
+        if (col < 0 || col >= width() || row < 0 || row >= height()) {
+            throw new IllegalArgumentException("pixel (" + col + ", " + row + ") is outside the "
+                    + width() + " x " + height() + " raster");
+        }
+    }
+
+    private int tileIndex(int col, int row) {
+        return (row / tileDimension) * collageDimension + col / tileDimension;
+    }
+
+    // Pixel (col, row) as if its tile had never been edited
+    private int base(int col, int row) {
+        if (baseTile != null) {
+            return baseTile[(row % tileDimension) * tileDimension + col % tileDimension];
+        }
+        return source.getRGB(sourceCols[col], sourceRows[row]);
+    }
+}
@@ -0,0 +1,192 @@
+package transit;
+
+import java.util.Arrays;
+
+/**
+ * A layered transit network with any number of named layers, stored as
+ * arrays rather than TNodes. Layer 0 is the fastest (top) layer and the last
+ * layer is walking. Every layer begins with a location of 0 and is a subset of
+ * the layer below it, and each stop drops down to the same location in the
+ * layer below, the same shape Transit builds with makeList.
+ *
+ * build picks the layers from the walking locations alone, promoting every
+ * branching-th stop of a layer to the layer above it, like a deterministic
+ * skip list. Then every layer can be ridden for at most branching - 1 hops
+ * before the path drops down, so a route takes O(log n) hops.
+ */
+public class ExpressNetwork {
+	/**
+	 * Branching factor used by build(int[]). The hop count of a route is about
+	 * b * log_b(n), which over whole numbers is smallest at b = 3.
+	 */
+	public static final int DEFAULT_BRANCHING = 3;
+
+	private final String[] names;
+	private final LayerIndex layers;
+
+	/**
+	 * Makes a network from the given layers. The arrays don't contain the
+	 * value 0; every layer gets a zero node of its own.
+	 *
+	 * @param names The name of each layer, top layer first
+	 * @param stops The stops of each layer, top layer first, each sorted in
+	 *              increasing order and found in the layer below
+	 */
+	public ExpressNetwork(String[] names, int[][] stops) {
+		if (names.length != stops.length) {
+			throw new IllegalArgumentException(names.length + " names for " + stops.length + " layers");
+		}
+		if (stops.length == 0) {
+			throw new IllegalArgumentException("a network needs at least one layer");
+		}
+		int[][] locations = new int[stops.length][];
+		for (int layer = 0; layer < stops.length; layer++) {
+			if (names[layer] == null) {
+				throw new IllegalArgumentException("layer " + layer + " has no name");
+			}
+			for (int other = 0; other < layer; other++) {
+				if (names[other].equals(names[layer])) {
+					throw new IllegalArgumentException("duplicate layer name " + names[layer]);
+				}
+			}
+			locations[layer] = new int[stops[layer].length + 1];
+			System.arraycopy(stops[layer], 0, locations[layer], 1, stops[layer].length);
+			for (int i = 1; i < locations[layer].length; i++) {
+				if (locations[layer][i] <= locations[layer][i - 1]) {
+					throw new IllegalArgumentException("stops of layer " + names[layer]
+							+ " must be positive and increasing, found " + locations[layer][i]);
+				}
+			}
+		}
+		for (int layer = 0; layer + 1 < locations.length; layer++) {
+			for (int location : locations[layer]) {
+				if (Arrays.binarySearch(locations[layer + 1], location) < 0) {
+					throw new IllegalArgumentException("stop " + location + " of layer " + names[layer]
+							+ " is not in layer " + names[layer + 1]);
+				}
+			}
+		}
+		this.names = names.clone();
+		this.layers = LayerIndex.of(locations);
+	}
+
+	/**
+	 * Builds a network over the given walking locations with
+	 * DEFAULT_BRANCHING.
+	 *
+	 * @param locations The walking locations, sorted in increasing order
+	 * @return The network
+	 */
+	public static ExpressNetwork build(int[] locations) {
+		return build(locations, DEFAULT_BRANCHING);
+	}
+
+	/**
+	 * Builds a network over the given walking locations, promoting every
+	 * branching-th stop of each layer (counting its zero node) to a new layer
+	 * above, until the top layer has fewer than branching stops after its
+	 * zero node. The bottom layer is named "walking" and the ones above it
+	 * "express 1", "express 2", ... going up.
+	 *
+	 * @param locations The walking locations, sorted in increasing order
+	 * @param branching How many stops of a layer share one stop above, at
+	 *                  least 2
+	 * @return The network
+	 */
+	public static ExpressNetwork build(int[] locations, int branching) {
+		if (branching < 2) {
+			throw new IllegalArgumentException("branching must be at least 2, got " + branching);
+		}
+		int count = 1;
+		for (int size = locations.length + 1; size > branching; size = (size + branching - 1) / branching) {
+			count++;
+		}
+
+		String[] names = new String[count];
+		int[][] stops = new int[count][];
+		names[count - 1] = "walking";
+		stops[count - 1] = locations.clone();
+		for (int layer = count - 2; layer >= 0; layer--) {
+			int[] below = stops[layer + 1];
+			// Stop i of the layer below sits at index i + 1 behind the zero node
+			int[] promoted = new int[below.length / branching];
+			for (int i = 0; i < promoted.length; i++) {
+				promoted[i] = below[(i + 1) * branching - 1];
+			}
+			names[layer] = "express " + (count - 1 - layer);
+			stops[layer] = promoted;
+		}
+		return new ExpressNetwork(names, stops);
+	}
+
+	/**
+	 * @return The number of layers
+	 */
+	public int getLayers() {
+		return layers.layers();
+	}
+
+	/**
+	 * @param layer The layer, 0 being the top layer
+	 * @return The name of the layer
+	 */
+	public String getName(int layer) {
+		return names[layer];
+	}
+
+	/**
+	 * @param name The name of a layer
+	 * @return The layer with that name, 0 being the top layer
+	 */
+	public int getLayer(String name) {
+		for (int layer = 0; layer < names.length; layer++) {
+			if (names[layer].equals(name)) {
+				return layer;
+			}
+		}
+		throw new IllegalArgumentException("no layer named " + name);
+	}
+
+	/**
+	 * @param layer The layer, 0 being the top layer
+	 * @return The locations of the layer, starting with its zero node
+	 */
+	public int[] getStops(int layer) {
+		int[] stops = new int[layers.size(layer)];
+		for (int i = 0; i < stops.length; i++) {
+			stops[i] = layers.location(layer, i);
+		}
+		return stops;
+	}
+
+	/**
+	 * Determines the best path to the destination: ride each layer as far as
+	 * possible, then drop down, the same as Transit.bestPath.
+	 *
+	 * @param destination An int representing the destination
+	 * @return The path as index ranges per layer
+	 */
+	public PathRanges bestPath(int destination) {
+		return layers.paths(new int[] { destination });
+	}
+
+	/**
+	 * Determines the best path to each of the given destinations in one
+	 * sweep, the same as Transit.bestPaths.
+	 *
+	 * @param destinations The destinations, sorted in increasing order
+	 * @return The path to every destination as index ranges per layer
+	 */
+	public PathRanges bestPaths(int[] destinations) {
+		return layers.paths(destinations);
+	}
+
+	/**
+	 * Converts the network to a layered linked list of NEW nodes.
+	 *
+	 * @return A reference to the zero node of the top layer
+	 */
+	public TNode toTNode() {
+		return layers.copy();
+	}
+}
@@ -0,0 +1,419 @@
+package transit;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Array-backed snapshot of a layered linked list. Each layer is kept as a
+ * sorted int array of locations plus an int array holding, for every node, the
+ * index of its down node in the layer below (struct-of-arrays), so traversals
+ * walk contiguous memory instead of chasing TNode pointers. When built from a
+ * linked list the original nodes are kept alongside, so results can still be
+ * handed out as TNodes.
+ *
+ * The index is immutable. remove, insert and insertLayer return an updated
+ * copy that shares every layer they do not touch, so a change costs the size
+ * of the layers involved rather than a walk over the whole list.
+ */
+final class LayerIndex {
+	private final int[][] locations; // locations[layer][i], sorted ascending
+	private final int[][] down; // index of the down node in layer + 1, -1 if none
+	private final TNode[][] nodes; // the TNode behind every entry, null if built from arrays
+
+	private LayerIndex(int[][] locations, int[][] down, TNode[][] nodes) {
+		this.locations = locations;
+		this.down = down;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Builds the index of the layered list starting at the given zero node of
+	 * the top layer, following down links from each layer's zero node.
+	 *
+	 * @param zero The zero node of the top layer, may be null
+	 * @return The index, with no layers if zero is null
+	 */
+	static LayerIndex of(TNode zero) {
+		int layers = 0;
+		for (TNode layer = zero; layer != null; layer = layer.getDown()) {
+			layers++;
+		}
+
+		int[][] locations = new int[layers][];
+		int[][] down = new int[layers][];
+		TNode[][] nodes = new TNode[layers][];
+
+		TNode layerZero = zero;
+		for (int layer = 0; layer < layers; layer++, layerZero = layerZero.getDown()) {
+			int size = 0;
+			for (TNode node = layerZero; node != null; node = node.getNext()) {
+				size++;
+			}
+			nodes[layer] = new TNode[size];
+			locations[layer] = new int[size];
+			int i = 0;
+			for (TNode node = layerZero; node != null; node = node.getNext(), i++) {
+				nodes[layer][i] = node;
+				locations[layer][i] = node.getLocation();
+			}
+		}
+
+		for (int layer = 0; layer < layers; layer++) {
+			down[layer] = layer + 1 < layers
+					? downIndices(nodes[layer], nodes[layer + 1], locations[layer + 1])
+					: filled(nodes[layer].length, -1);
+		}
+		return new LayerIndex(locations, down, nodes);
+	}
+
+	/**
+	 * Builds an index straight from location arrays, without TNodes. Every
+	 * layer starts with location 0 and is a subset of the layer below it;
+	 * each node links down to the node at the same location.
+	 *
+	 * @param locations The sorted locations of each layer, top layer first
+	 * @return The index, whose node(layer, i) is not available
+	 */
+	static LayerIndex of(int[][] locations) {
+		int[][] down = new int[locations.length][];
+		for (int layer = 0; layer < locations.length; layer++) {
+			if (layer + 1 == locations.length) {
+				down[layer] = filled(locations[layer].length, -1);
+				continue;
+			}
+			int[] upper = locations[layer], lower = locations[layer + 1];
+			down[layer] = new int[upper.length];
+			int j = 0;
+			for (int i = 0; i < upper.length; i++) {
+				while (lower[j] < upper[i]) {
+					j++;
+				}
+				down[layer][i] = j;
+			}
+		}
+		return new LayerIndex(locations, down, null);
+	}
+
+	/**
+	 * Resolves the down link of every node in upper to an index into lower.
+	 * Down nodes normally sit at the same location, so they are found with a
+	 * merge over both layers; anything else falls back to an identity lookup.
+	 */
+	private static int[] downIndices(TNode[] upper, TNode[] lower, int[] lowerLocations) {
+		int[] result = new int[upper.length];
+		Map<TNode, Integer> positions = null;
+		int j = 0;
+		for (int i = 0; i < upper.length; i++) {
+			TNode target = upper[i].getDown();
+			if (target == null) {
+				result[i] = -1;
+				continue;
+			}
+			while (j < lower.length && lowerLocations[j] < target.getLocation()) {
+				j++;
+			}
+			int k = j;
+			while (k < lower.length && lowerLocations[k] == target.getLocation() && lower[k] != target) {
+				k++;
+			}
+			if (k < lower.length && lower[k] == target) {
+				result[i] = k;
+				continue;
+			}
+			if (positions == null) {
+				positions = new IdentityHashMap<>();
+				for (int n = 0; n < lower.length; n++) {
+					positions.put(lower[n], n);
+				}
+			}
+			Integer position = positions.get(target);
+			result[i] = position == null ? -1 : position;
+		}
+		return result;
+	}
+
+	private static int[] filled(int length, int value) {
+		int[] array = new int[length];
+		Arrays.fill(array, value);
+		return array;
+	}
+
+	/**
+	 * @return The number of layers, top (train) layer first
+	 */
+	int layers() {
+		return locations.length;
+	}
+
+	/**
+	 * @return The number of nodes in the layer, including its zero node
+	 */
+	int size(int layer) {
+		return locations[layer].length;
+	}
+
+	/**
+	 * @return The location of node i of the layer
+	 */
+	int location(int layer, int i) {
+		return locations[layer][i];
+	}
+
+	/**
+	 * @return The index in layer + 1 of the down node of node i, -1 if none
+	 */
+	int down(int layer, int i) {
+		return down[layer][i];
+	}
+
+	/**
+	 * Binary searches the layer for the last node at or before the given
+	 * location, looking only at indices from start on.
+	 *
+	 * @param layer    The layer to search
+	 * @param start    The first index to consider
+	 * @param location The location to stop at
+	 * @return The index of the last node in [start, size) whose location is at
+	 *         most location, or start - 1 if there is none
+	 */
+	int floor(int layer, int start, int location) {
+		return floor(locations[layer], start, locations[layer].length, location);
+	}
+
+	/**
+	 * Like floor(layer, start, location), but gallops forward from start
+	 * before binary searching, so the cost is logarithmic in the distance
+	 * covered rather than in the layer size. Used by sweeps whose answers only
+	 * move forward.
+	 *
+	 * @param layer    The layer to search
+	 * @param start    The first index to consider
+	 * @param location The location to stop at
+	 * @return The index of the last node in [start, size) whose location is at
+	 *         most location, or start - 1 if there is none
+	 */
+	int floorFrom(int layer, int start, int location) {
+		int[] layerLocations = locations[layer];
+		int low = start, high = start, step = 1;
+		while (high < layerLocations.length && layerLocations[high] <= location) {
+			low = high + 1;
+			high += step;
+			step <<= 1;
+		}
+		return floor(layerLocations, low, Math.min(high, layerLocations.length), location);
+	}
+
+	/**
+	 * Binary search over [low, high) of a sorted array, where every entry
+	 * before low is known to be at most location
+	 */
+	private static int floor(int[] layerLocations, int low, int high, int location) {
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (layerLocations[mid] <= location) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low - 1;
+	}
+
+	/**
+	 * @return The TNode behind node i of the layer
+	 * @throws IllegalStateException if the index was built without TNodes
+	 */
+	TNode node(int layer, int i) {
+		if (nodes == null) {
+			throw new IllegalStateException("this index is not backed by TNodes");
+		}
+		return nodes[layer][i];
+	}
+
+	/**
+	 * Returns the index without node i of the layer. Down links of the layer
+	 * above that point past it are shifted back; one that pointed at it
+	 * becomes -1.
+	 *
+	 * @param layer The layer to remove from
+	 * @param i     The index of the node to remove
+	 * @return The updated index
+	 */
+	LayerIndex remove(int layer, int i) {
+		int[][] newLocations = locations.clone();
+		int[][] newDown = down.clone();
+		TNode[][] newNodes = nodes == null ? null : nodes.clone();
+		int size = size(layer);
+		newLocations[layer] = new int[size - 1];
+		newDown[layer] = new int[size - 1];
+		System.arraycopy(locations[layer], 0, newLocations[layer], 0, i);
+		System.arraycopy(locations[layer], i + 1, newLocations[layer], i, size - 1 - i);
+		System.arraycopy(down[layer], 0, newDown[layer], 0, i);
+		System.arraycopy(down[layer], i + 1, newDown[layer], i, size - 1 - i);
+		if (newNodes != null) {
+			newNodes[layer] = new TNode[size - 1];
+			System.arraycopy(nodes[layer], 0, newNodes[layer], 0, i);
+			System.arraycopy(nodes[layer], i + 1, newNodes[layer], i, size - 1 - i);
+		}
+		if (layer > 0) {
+			int[] above = down[layer - 1].clone();
+			for (int n = 0; n < above.length; n++) {
+				if (above[n] == i) {
+					above[n] = -1;
+				} else if (above[n] > i) {
+					above[n]--;
+				}
+			}
+			newDown[layer - 1] = above;
+		}
+		return new LayerIndex(newLocations, newDown, newNodes);
+	}
+
+	/**
+	 * Returns the index with node inserted as node i of the layer. Down links
+	 * of the layer above that point at i or later are shifted forward.
+	 *
+	 * @param layer     The layer to insert into
+	 * @param i         The index the node gets, keeping the layer sorted
+	 * @param node      The node, whose location is used
+	 * @param downIndex The index of its down node in layer + 1, -1 if none
+	 * @return The updated index
+	 */
+	LayerIndex insert(int layer, int i, TNode node, int downIndex) {
+		int[][] newLocations = locations.clone();
+		int[][] newDown = down.clone();
+		TNode[][] newNodes = nodes == null ? null : nodes.clone();
+		int size = size(layer);
+		newLocations[layer] = new int[size + 1];
+		newDown[layer] = new int[size + 1];
+		System.arraycopy(locations[layer], 0, newLocations[layer], 0, i);
+		System.arraycopy(locations[layer], i, newLocations[layer], i + 1, size - i);
+		System.arraycopy(down[layer], 0, newDown[layer], 0, i);
+		System.arraycopy(down[layer], i, newDown[layer], i + 1, size - i);
+		newLocations[layer][i] = node.getLocation();
+		newDown[layer][i] = downIndex;
+		if (newNodes != null) {
+			newNodes[layer] = new TNode[size + 1];
+			System.arraycopy(nodes[layer], 0, newNodes[layer], 0, i);
+			System.arraycopy(nodes[layer], i, newNodes[layer], i + 1, size - i);
+			newNodes[layer][i] = node;
+		}
+		if (layer > 0) {
+			int[] above = down[layer - 1].clone();
+			for (int n = 0; n < above.length; n++) {
+				if (above[n] >= i) {
+					above[n]++;
+				}
+			}
+			newDown[layer - 1] = above;
+		}
+		return new LayerIndex(newLocations, newDown, newNodes);
+	}
+
+	/**
+	 * Returns the index with a new layer inserted as layer, pushing the layer
+	 * there (and every one below it) down by one.
+	 *
+	 * @param layer      Where the new layer goes, at least 1
+	 * @param layerNodes The nodes of the new layer, sorted by location
+	 * @param layerDown  For each new node, the index of its down node in the
+	 *                   layer that used to be at layer
+	 * @param aboveDown  For each node of layer - 1, the index of its down node
+	 *                   in the new layer
+	 * @return The updated index
+	 */
+	LayerIndex insertLayer(int layer, TNode[] layerNodes, int[] layerDown, int[] aboveDown) {
+		int count = layers() + 1;
+		int[][] newLocations = new int[count][];
+		int[][] newDown = new int[count][];
+		TNode[][] newNodes = nodes == null ? null : new TNode[count][];
+		for (int l = 0, old = 0; l < count; l++) {
+			if (l == layer) {
+				newLocations[l] = new int[layerNodes.length];
+				for (int i = 0; i < layerNodes.length; i++) {
+					newLocations[l][i] = layerNodes[i].getLocation();
+				}
+				newDown[l] = layerDown;
+				if (newNodes != null) {
+					newNodes[l] = layerNodes;
+				}
+				continue;
+			}
+			newLocations[l] = locations[old];
+			newDown[l] = l == layer - 1 ? aboveDown : down[old];
+			if (newNodes != null) {
+				newNodes[l] = nodes[old];
+			}
+			old++;
+		}
+		return new LayerIndex(newLocations, newDown, newNodes);
+	}
+
+	/**
+	 * Determines the best path to each of the given destinations in one sweep
+	 * down the layers: ride each layer as far as possible, then drop down.
+	 * The destinations are handled in increasing order, so the drop-down
+	 * point in every layer only moves forward and is shared by destinations
+	 * that fall between the same two stops. Each search gallops from where the
+	 * path entered the layer, so it costs O(log k) for k hops ridden.
+	 *
+	 * @param destinations The destinations, sorted in increasing order
+	 * @return The path to every destination as index ranges per layer
+	 */
+	PathRanges paths(int[] destinations) {
+		for (int i = 1; i < destinations.length; i++) {
+			if (destinations[i] < destinations[i - 1]) {
+				throw new IllegalArgumentException("destinations must be sorted, found "
+						+ destinations[i - 1] + " before " + destinations[i]);
+			}
+		}
+		int count = layers();
+		int[] ranges = new int[2 * destinations.length * count];
+		int[] starts = new int[destinations.length]; // where each path enters the layer, -1 once it stopped
+
+		for (int layer = 0; layer < count; layer++) {
+			int reach = -1; // a node at or before every destination still to come
+			for (int i = 0; i < destinations.length; i++) {
+				int start = starts[i];
+				if (start < 0) {
+					continue;
+				}
+				// Gallop from the drop-down point, so a layer costs O(log hops)
+				int last = floorFrom(layer, Math.max(reach + 1, start), destinations[i]);
+				if (last < start) {
+					starts[i] = -1;
+					continue;
+				}
+				reach = last;
+				int slot = 2 * (i * count + layer);
+				ranges[slot] = start;
+				ranges[slot + 1] = last + 1;
+				starts[i] = down[layer][last];
+			}
+		}
+		return new PathRanges(this, destinations.clone(), ranges);
+	}
+
+	/**
+	 * Builds a new layered linked list with the same locations and connections
+	 * as the indexed one, where every node is a NEW node.
+	 *
+	 * @return The zero node of the top layer of the copy, null if there are no
+	 *         layers
+	 */
+	TNode copy() {
+		TNode[] below = null;
+		for (int layer = layers() - 1; layer >= 0; layer--) {
+			int[] layerLocations = locations[layer];
+			TNode[] copies = new TNode[layerLocations.length];
+			for (int i = copies.length - 1; i >= 0; i--) {
+				int target = down[layer][i];
+				copies[i] = new TNode(layerLocations[i], i + 1 < copies.length ? copies[i + 1] : null,
+						target < 0 ? null : below[target]);
+			}
+			below = copies;
+		}
+		return below == null || below.length == 0 ? null : below[0];
+	}
+}
@@ -0,0 +1,100 @@
+package transit;
+
+import java.util.ArrayList;
+
+/**
+ * The best paths to a batch of destinations, as returned by
+ * Transit.bestPaths and ExpressNetwork.bestPaths. Instead of a list of nodes per destination, each path is
+ * stored as one index range per layer: the path rides nodes [start, end) of
+ * that layer, numbered from the layer's zero node. Layer 0 is the train layer
+ * and the last layer is walking. A layer the path never reaches has an empty
+ * range.
+ *
+ * The ranges refer to the layered list as it was when they were computed.
+ */
+public final class PathRanges {
+	private final LayerIndex layers; // the layers the ranges index into
+	private final int[] destinations;
+	private final int[] ranges; // start, end of destination i on layer l at 2 * (i * layers + l)
+
+	PathRanges(LayerIndex layers, int[] destinations, int[] ranges) {
+		this.layers = layers;
+		this.destinations = destinations;
+		this.ranges = ranges;
+	}
+
+	/**
+	 * @return The number of destinations
+	 */
+	public int size() {
+		return destinations.length;
+	}
+
+	/**
+	 * @return The number of layers every path has a range for
+	 */
+	public int getLayers() {
+		return layers.layers();
+	}
+
+	/**
+	 * @param i Which destination, in the order they were given
+	 * @return The destination location
+	 */
+	public int getDestination(int i) {
+		return destinations[i];
+	}
+
+	/**
+	 * @param i     Which destination
+	 * @param layer The layer, 0 being the train layer
+	 * @return The index of the first node of the layer on the path
+	 */
+	public int getStart(int i, int layer) {
+		return ranges[slot(i, layer)];
+	}
+
+	/**
+	 * @param i     Which destination
+	 * @param layer The layer, 0 being the train layer
+	 * @return One past the index of the last node of the layer on the path
+	 */
+	public int getEnd(int i, int layer) {
+		return ranges[slot(i, layer) + 1];
+	}
+
+	/**
+	 * @param layer The layer, 0 being the train layer
+	 * @param index The index of a node within the layer
+	 * @return The location of that node
+	 */
+	public int getLocation(int layer, int index) {
+		return layers.location(layer, index);
+	}
+
+	/**
+	 * Materializes the path to one destination, the same list bestPath
+	 * returns for it.
+	 *
+	 * @param i Which destination
+	 * @return The nodes on the path, layer by layer
+	 * @throws IllegalStateException if the ranges come from an ExpressNetwork,
+	 *                               which has no TNodes
+	 */
+	public ArrayList < TNode > getPath(int i) {
+		ArrayList < TNode > path = new ArrayList < > ();
+		for (int layer = 0; layer < layers.layers(); layer++) {
+			for (int node = getStart(i, layer); node < getEnd(i, layer); node++) {
+				path.add(layers.node(layer, node));
+			}
+		}
+		return path;
+	}
+
+	private int slot(int i, int layer) {
+		if (layer < 0 || layer >= layers.layers()) {
+			throw new IndexOutOfBoundsException("layer " + layer + " of " + layers.layers());
+		}
+		return 2 * (i * layers.layers() + layer);
+	}
+}
@@ -0,0 +1,31 @@
+package transit;
+
+import java.util.ArrayList;
+
+/**
+ * A route found by TransitRouter: the nodes visited in travel order and the
+ * total time it takes.
+ */
+public final class Route {
+	private final ArrayList < TNode > path;
+	private final long cost;
+
+	Route(ArrayList < TNode > path, long cost) {
+		this.path = path;
+		this.cost = cost;
+	}
+
+	/**
+	 * @return The nodes visited, from the origin to the destination
+	 */
+	public ArrayList < TNode > getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The total hop and transfer time of the route
+	 */
+	public long getCost() {
+		return cost;
+	}
+}
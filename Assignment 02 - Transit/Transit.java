@@ -12,19 +12,44 @@ import java.util.ArrayList;
  */
 public class Transit {
 	private TNode trainZero; // a reference to the zero node in the train layer
+	private LayerIndex layers; // the layers as arrays, kept in step with the TNodes; null when unknown
 
 	public Transit() {
 		trainZero = null;
 	}
 
 	public Transit(TNode tz) {
-		trainZero = tz;
+		trainZero = tz; // indexed on first use
 	}
 
 	public TNode getTrainZero() {
+		layers = null; // the caller may change the nodes, index them again on next use
 		return trainZero;
 	}
 
+	/**
+	 * Indexes the TNodes again. The methods of this class keep the index in
+	 * step with the nodes, and getTrainZero() forces a new index, but a change
+	 * made directly to a node handed out some other way (such as one returned
+	 * by bestPath) is only seen after calling this.
+	 */
+	public void rebuildIndex() {
+		layers = null;
+	}
+
+	/**
+	 * Returns the array-backed index of the layered list, building it from the
+	 * TNodes if it is not known.
+	 * 
+	 * @return The index of the current layers
+	 */
+	private LayerIndex index() {
+		if (layers == null) {
+			layers = LayerIndex.of(trainZero);
+		}
+		return layers;
+	}
+
 	/**
 	 * Makes a layered linked list representing the given arrays of train stations,
 	 * bus
@@ -97,6 +122,7 @@ public class Transit {
 				}
 			}
 		}
+		layers = LayerIndex.of(trainZero);
 	}
 
 	/**
@@ -107,19 +133,13 @@ public class Transit {
 	 * @param station The location of the train station to remove
 	 */
 	public void removeTrainStation(int station) {
-
-		TNode currentStop = trainZero.getNext();
-		TNode previousStop = trainZero;
-
-		while (currentStop != null) {
-
-			if (currentStop.getLocation() == station) {
-				previousStop.setNext(currentStop.getNext());
-			}
-
-			previousStop = currentStop;
-			currentStop = currentStop.getNext();
+		LayerIndex layers = index();
+		int train = layers.floor(0, 1, station); // never the zero node
+		if (train < 1 || layers.location(0, train) != station) {
+			return;
 		}
+		layers.node(0, train - 1).setNext(layers.node(0, train).getNext());
+		this.layers = layers.remove(0, train);
 	}
 
 	/**
@@ -130,25 +150,21 @@ public class Transit {
 	 * @param busStop The location of the bus stop to add
 	 */
 	public void addBusStop(int busStop) {
-
-		TNode currentBus = trainZero.getDown();
-
-		while (currentBus.getLocation() < busStop) {
-			if (currentBus.getNext().getLocation() > busStop) {
-
-				TNode location = currentBus.getDown();
-				for (int i = 0;
-					((location != null) && (location.getLocation() < busStop)); location = location.getNext()) {
-					if (location.getLocation() == busStop) {
-						location = currentBus.getDown();
-					}
-				}
-
-				TNode newBus = new TNode(busStop, currentBus.getNext(), location);
-				currentBus.setNext(newBus);
-			}
-			currentBus = currentBus.getNext();
+		LayerIndex layers = index();
+		int bus = 1, below = 2;
+		int previous = layers.floor(bus, 0, busStop);
+		if (previous < 0 || layers.location(bus, previous) == busStop) {
+			return;
+		}
+		int location = layers.floor(below, 0, busStop);
+		if (location < 0 || layers.location(below, location) != busStop) {
+			return;
 		}
+
+		TNode previousBus = layers.node(bus, previous);
+		TNode newBus = new TNode(busStop, previousBus.getNext(), layers.node(below, location));
+		previousBus.setNext(newBus);
+		this.layers = layers.insert(bus, previous + 1, newBus, location);
 	}
 
 	/**
@@ -162,36 +178,41 @@ public class Transit {
 
 
 	public ArrayList < TNode > bestPath(int destination) {
-
+		LayerIndex layers = index();
 		ArrayList < TNode > path = new ArrayList < > ();
 
-		ArrayList < TNode > trainMap = new ArrayList < > ();
-		TNode trainCurrent = trainZero;
-		for (int i = 0;
-			((trainCurrent != null) && (trainCurrent.getLocation() <= destination)); trainCurrent = trainCurrent.getNext()) {
-			trainMap.add(trainCurrent);
-		}
-
-		ArrayList < TNode > busMap = new ArrayList < > ();
-		TNode busCurrent = trainMap.get(trainMap.size() - 1).getDown();
-		for (int i = 0;
-			((busCurrent != null) && (busCurrent.getLocation() <= destination)); busCurrent = busCurrent.getNext()) {
-			busMap.add(busCurrent);
-		}
-
-		ArrayList < TNode > locationMap = new ArrayList < > ();
-		TNode locationCurrent = busMap.get(busMap.size() - 1).getDown();
-		for (int i = 0;
-			((locationCurrent != null) && (locationCurrent.getLocation() <= destination)); locationCurrent = locationCurrent.getNext()) {
-			locationMap.add(locationCurrent);
+		// Ride each layer as far as possible, then take the last node's down
+		// link. The drop-down point is found by binary search, O(log n) per layer
+		int start = 0;
+		for (int layer = 0; layer < layers.layers() && start >= 0; layer++) {
+			int last = layers.floor(layer, start, destination);
+			if (last < start) {
+				break;
+			}
+			path.ensureCapacity(path.size() + last - start + 1);
+			for (int i = start; i <= last; i++) {
+				path.add(layers.node(layer, i));
+			}
+			start = layers.down(layer, last);
 		}
-		path.addAll(trainMap);
-		path.addAll(busMap);
-		path.addAll(locationMap);
 		return path;
 	}
 
 
+	/**
+	 * Determines the best path to each of the given destinations in one sweep
+	 * down the layers. The destinations are handled in increasing order, so
+	 * the drop-down point in every layer only moves forward and is shared by
+	 * destinations that fall between the same two stops. Each path is the
+	 * same as bestPath would return, but comes back as per-layer index ranges.
+	 * 
+	 * @param destinations The destinations, sorted in increasing order
+	 * @return The path to every destination as index ranges per layer
+	 */
+	public PathRanges bestPaths(int[] destinations) {
+		return index().paths(destinations);
+	}
+
 	/**
 	 * Returns a deep copy of the given layered list, which contains exactly the
 	 * same
@@ -200,64 +221,7 @@ public class Transit {
 	 * @return A reference to the train zero node of a deep copy
 	 */
 	public TNode duplicate() {
-
-		TNode train = trainZero;
-		TNode result = new TNode();
-		TNode scooterNode = result;
-
-		while (train.getNext() != null) {
-			result.setNext(new TNode(train.getNext().getLocation()));
-			train = train.getNext();
-			result = result.getNext();
-		}
-
-		train = trainZero.getDown();
-		TNode temp = new TNode();
-
-		result = temp;
-		scooterNode.setDown(temp);
-
-		while (train.getNext() != null) {
-			result.setNext(new TNode(train.getNext().getLocation()));
-			train = train.getNext();
-			result = result.getNext();
-		}
-
-		train = trainZero.getDown().getDown();
-		TNode copy2 = new TNode();
-		result = copy2;
-		scooterNode.getDown().setDown(copy2);
-
-		while (train.getNext() != null) {
-			result.setNext(new TNode(train.getNext().getLocation()));
-			train = train.getNext();
-			result = result.getNext();
-		}
-
-		TNode layerAboveAbove = scooterNode;
-		TNode layer = temp;
-
-		while (layerAboveAbove != null) {
-			if (layerAboveAbove.getLocation() == layer.getLocation()) {
-				layerAboveAbove.setDown(layer);
-				layerAboveAbove = layerAboveAbove.getNext();
-			}
-			layer = layer.getNext();
-		}
-
-		layer = temp;
-		TNode layerAbove = copy2;
-
-		while (layer != null) {
-			if (layer.getLocation() == layerAbove.getLocation()) {
-				layer.setDown(layerAbove);
-				layer = layer.getNext();
-			}
-			layerAbove = layerAbove.getNext();
-		}
-
-		result = scooterNode;
-		return result;
+		return index().copy();
 	}
 
 	/**
@@ -268,62 +232,36 @@ public class Transit {
 	 *                     located
 	 */
 	public void addScooter(int[] scooterStops) {
-
-		TNode busZero = trainZero.getDown();
-		TNode scooterZero = new TNode();
-		TNode scooterNode = scooterZero;
-		int length = scooterStops.length;
-
-		TNode trainNode = trainZero;
-		TNode bus = trainNode.getDown();
-		TNode location = bus.getDown();
-
-		int trainLength = 0;
-		while (trainNode != null) {
-			trainLength++;
-			trainNode = trainNode.getNext();
-		}
-		int busLength = 0;
-		while (bus != null) {
-			busLength++;
-			bus = bus.getNext();
-		}
-		int locationLength = 0;
-		while (location != null) {
-			locationLength++;
-			location = location.getNext();
-		}
-
-		scooterZero.setDown(trainZero.getDown().getDown()); //train > bus > scooter > location
-		busZero.setDown(scooterZero);
-
-		for (int i = 0; i < length; i++) {
-			TNode nextScooter = new TNode(scooterStops[i]);
-			scooterNode.setNext(nextScooter);
-			scooterNode = scooterNode.getNext();
-		}
-
-		TNode busNode = busZero;
-		scooterNode = scooterZero;
-
-		while (busNode != null) {
-			if (busNode.getLocation() == scooterNode.getLocation()) {
-				busNode.setDown(scooterNode);
-				busNode = busNode.getNext();
+		LayerIndex layers = index();
+		int bus = 1, walking = 2; // the scooter layer goes in between
+
+		// Scooter layer, each stop linked down to the walking location it sits on
+		TNode[] scooters = new TNode[scooterStops.length + 1];
+		int[] scooterDown = new int[scooters.length];
+		int location = 0;
+		for (int i = 0; i < scooters.length; i++) {
+			int stop = i == 0 ? 0 : scooterStops[i - 1];
+			while (location < layers.size(walking) - 1 && layers.location(walking, location) < stop) {
+				location++;
+			}
+			scooters[i] = new TNode(stop, null, layers.node(walking, location));
+			scooterDown[i] = location;
+			if (i > 0) {
+				scooters[i - 1].setNext(scooters[i]);
 			}
-			scooterNode = scooterNode.getNext();
 		}
 
-		scooterNode = scooterZero;
-		TNode locationNode = scooterZero.getDown();
-
-		while (scooterNode != null) {
-			if (scooterNode.getLocation() == locationNode.getLocation()) {
-				scooterNode.setDown(locationNode);
-				scooterNode = scooterNode.getNext();
+		// Every bus stop now drops down to the scooter stop at its location
+		int[] busDown = new int[layers.size(bus)];
+		int scooter = 0;
+		for (int i = 0; i < layers.size(bus); i++) {
+			while (scooter < scooters.length - 1 && scooters[scooter].getLocation() < layers.location(bus, i)) {
+				scooter++;
 			}
-			locationNode = locationNode.getNext();
+			layers.node(bus, i).setDown(scooters[scooter]);
+			busDown[i] = scooter;
 		}
+		this.layers = layers.insertLayer(walking, scooters, scooterDown, busDown);
 	}
 
 	/**
@@ -0,0 +1,232 @@
+package transit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Finds minimum-time routes through a layered linked list. Riding one hop
+ * along a layer (forwards or backwards) takes that layer's hop time, and
+ * moving between a node and its down node (in either direction) takes the
+ * transfer penalty. Routes start and end in the walking (bottom) layer at any
+ * location, and are found with Dijkstra's algorithm.
+ *
+ * The graph is a snapshot of the next/down links taken when the router is
+ * made; make a new router after the list changes. The search reuses
+ * preallocated primitive arrays for its distances and binary heap, so a query
+ * allocates nothing per node or edge, but a router must not be used by two
+ * threads at once.
+ */
+public class TransitRouter {
+	private final LayerIndex layers;
+	private final int[] offsets; // id of the zero node of each layer; node i of a layer is offset + i
+	private final int[] layerOf; // layer of every id
+	private final int[] down; // id of the down node, -1 if none
+	private final int[] up; // id of the node whose down node this is, -1 if none
+	private final long[] hopTimes;
+	private final long transferPenalty;
+
+	// Search state, valid for an id only while stamp[id] == query
+	private final long[] dist;
+	private final int[] previous;
+	private final int[] pos; // index in heap, -1 once settled
+	private final int[] stamp;
+	private final int[] heap;
+	private int heapSize;
+	private int query;
+
+	/**
+	 * Makes a router over the layered list starting at trainZero.
+	 *
+	 * @param trainZero       The zero node of the top layer
+	 * @param hopTimes        Time of one hop in each layer, top layer first
+	 * @param transferPenalty Time of moving one layer up or down
+	 */
+	public TransitRouter(TNode trainZero, int[] hopTimes, int transferPenalty) {
+		layers = LayerIndex.of(trainZero);
+		if (layers.layers() == 0) {
+			throw new IllegalArgumentException("the layered list is empty");
+		}
+		if (hopTimes.length != layers.layers()) {
+			throw new IllegalArgumentException(hopTimes.length + " hop times for " + layers.layers() + " layers");
+		}
+		if (transferPenalty < 0) {
+			throw new IllegalArgumentException("negative transfer penalty " + transferPenalty);
+		}
+		this.hopTimes = new long[hopTimes.length];
+		for (int layer = 0; layer < hopTimes.length; layer++) {
+			if (hopTimes[layer] < 0) {
+				throw new IllegalArgumentException("negative hop time " + hopTimes[layer] + " in layer " + layer);
+			}
+			this.hopTimes[layer] = hopTimes[layer];
+		}
+		this.transferPenalty = transferPenalty;
+
+		offsets = new int[layers.layers() + 1];
+		for (int layer = 0; layer < layers.layers(); layer++) {
+			offsets[layer + 1] = offsets[layer] + layers.size(layer);
+		}
+		int nodes = offsets[layers.layers()];
+		layerOf = new int[nodes];
+		down = new int[nodes];
+		up = new int[nodes];
+		Arrays.fill(up, -1);
+		for (int layer = 0; layer < layers.layers(); layer++) {
+			for (int i = 0; i < layers.size(layer); i++) {
+				int id = offsets[layer] + i;
+				int target = layers.down(layer, i);
+				layerOf[id] = layer;
+				down[id] = target < 0 ? -1 : offsets[layer + 1] + target;
+				if (target >= 0) {
+					up[down[id]] = id;
+				}
+			}
+		}
+
+		dist = new long[nodes];
+		previous = new int[nodes];
+		pos = new int[nodes];
+		stamp = new int[nodes];
+		heap = new int[nodes];
+	}
+
+	/**
+	 * Makes a router over the current layers of transit.
+	 *
+	 * @param transit         The transit network
+	 * @param hopTimes        Time of one hop in each layer, top layer first
+	 * @param transferPenalty Time of moving one layer up or down
+	 */
+	public TransitRouter(Transit transit, int[] hopTimes, int transferPenalty) {
+		this(transit.getTrainZero(), hopTimes, transferPenalty);
+	}
+
+	/**
+	 * Finds the minimum-time route between two walking locations.
+	 *
+	 * @param origin      The walking location to start from
+	 * @param destination The walking location to reach
+	 * @return The route, with the nodes visited and its total time
+	 */
+	public Route route(int origin, int destination) {
+		int source = walkingNode(origin);
+		int target = walkingNode(destination);
+
+		if (++query == 0) { // wrapped around, forget every stamp
+			Arrays.fill(stamp, 0);
+			query = 1;
+		}
+		heapSize = 0;
+		reach(source, 0, -1);
+
+		while (heapSize > 0) {
+			int id = pop();
+			if (id == target) {
+				break;
+			}
+			long time = dist[id];
+			int layer = layerOf[id];
+			long hop = hopTimes[layer];
+			if (id > offsets[layer]) {
+				reach(id - 1, time + hop, id);
+			}
+			if (id + 1 < offsets[layer + 1]) {
+				reach(id + 1, time + hop, id);
+			}
+			if (down[id] >= 0) {
+				reach(down[id], time + transferPenalty, id);
+			}
+			if (up[id] >= 0) {
+				reach(up[id], time + transferPenalty, id);
+			}
+		}
+
+		ArrayList < TNode > path = new ArrayList < > ();
+		for (int id = target; id >= 0; id = previous[id]) {
+			path.add(layers.node(layerOf[id], id - offsets[layerOf[id]]));
+		}
+		Collections.reverse(path);
+		return new Route(path, dist[target]);
+	}
+
+	/**
+	 * @return The id of the walking node at the location
+	 */
+	private int walkingNode(int location) {
+		int walking = layers.layers() - 1;
+		int i = layers.floor(walking, 0, location);
+		if (i < 0 || layers.location(walking, i) != location) {
+			throw new IllegalArgumentException("no walking location " + location);
+		}
+		return offsets[walking] + i;
+	}
+
+	/**
+	 * Relaxes the edge into id from the settled node from, arriving at time
+	 */
+	private void reach(int id, long time, int from) {
+		if (stamp[id] != query) {
+			stamp[id] = query;
+			dist[id] = time;
+			previous[id] = from;
+			pos[id] = heapSize;
+			heap[heapSize++] = id;
+			siftUp(pos[id]);
+		} else if (pos[id] >= 0 && time < dist[id]) {
+			dist[id] = time;
+			previous[id] = from;
+			siftUp(pos[id]);
+		}
+	}
+
+	/**
+	 * Removes and returns the id with the smallest distance, marking it settled
+	 */
+	private int pop() {
+		int top = heap[0];
+		pos[top] = -1;
+		int last = heap[--heapSize];
+		if (heapSize > 0) {
+			heap[0] = last;
+			pos[last] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	private void siftUp(int i) {
+		int id = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (dist[heap[parent]] <= dist[id]) {
+				break;
+			}
+			heap[i] = heap[parent];
+			pos[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = id;
+		pos[id] = i;
+	}
+
+	private void siftDown(int i) {
+		int id = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && dist[heap[child + 1]] < dist[heap[child]]) {
+				child++;
+			}
+			if (dist[heap[child]] >= dist[id]) {
+				break;
+			}
+			heap[i] = heap[child];
+			pos[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = id;
+		pos[id] = i;
+	}
+}